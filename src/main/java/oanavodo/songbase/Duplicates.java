@@ -0,0 +1,211 @@
+package oanavodo.songbase;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import oanavodo.songbase.playlist.Playlist;
+import oanavodo.songbase.playlist.PlaylistList;
+
+/**
+ * Finds byte identical song files in a music folder tree.
+ * Candidates are grouped by size first. Only files with same size are hashed, first partially (start and end
+ * of the file) and only if this still matches completely. Files are read memory mapped and hashed in parallel.
+ * @author Reiner
+ */
+public class Duplicates {
+
+    public static enum Mode { REPORT, MERGE };
+
+    private static final int PARTIAL = 64 * 1024;
+    private static final long CHUNK = 64L << 20;
+
+    /**
+     * Byte identical copies of one song.
+     */
+    public static class Group {
+        private final long size;
+        private final List<Path> copies;
+
+        private Group(long size, List<Path> copies) {
+            this.size = size;
+            this.copies = copies;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public List<Path> getCopies() {
+            return copies;
+        }
+    }
+
+    private final SongBaseContext context;
+    private final Path base;
+    private final Map<Path, List<Playlist>> refs = new HashMap<>();
+
+    /**
+     * Creates a finder for the music folder tree.
+     * @param context context of the operation
+     * @param base base folder of the music tree
+     * @param factory playlists which may reference the songs
+     */
+    public Duplicates(SongBaseContext context, Path base, PlaylistList factory) {
+        this.context = context;
+        this.base = base.toAbsolutePath().normalize();
+        factory.stream().forEach(list -> list.entries().forEach(entry -> {
+            List<Playlist> using = refs.computeIfAbsent(entry.getPath(), key -> new ArrayList<>());
+            if (!using.contains(list)) using.add(list);
+        }));
+    }
+
+    /**
+     * Finds all groups of byte identical songs.
+     * @return groups sorted by path of first copy
+     */
+    public List<Group> find() {
+        Map<Long, List<Path>> bysize = SongTree.scan(context, base).stream()
+            .filter(song -> song.getSize() > 0)
+            .collect(Collectors.groupingBy(song -> song.getSize(), LinkedHashMap::new, Collectors.mapping(song -> song.getPath(), Collectors.toList())));
+        Map<Path, Long> sizes = new HashMap<>();
+        bysize.forEach((size, paths) -> paths.forEach(path -> sizes.put(path, size)));
+
+        List<List<Path>> candidates = bysize.values().stream().filter(paths -> paths.size() > 1).collect(Collectors.toList());
+        candidates = refine(candidates, path -> hash(path, sizes.get(path), true));
+        // partial hash already covers small files completely
+        List<List<Path>> small = candidates.stream().filter(paths -> sizes.get(paths.get(0)) <= 2 * PARTIAL).collect(Collectors.toList());
+        List<List<Path>> large = candidates.stream().filter(paths -> sizes.get(paths.get(0)) > 2 * PARTIAL).collect(Collectors.toList());
+        large = refine(large, path -> hash(path, sizes.get(path), false));
+
+        List<Group> groups = new ArrayList<>();
+        small.forEach(paths -> groups.add(new Group(sizes.get(paths.get(0)), paths)));
+        large.forEach(paths -> groups.add(new Group(sizes.get(paths.get(0)), paths)));
+        groups.forEach(group -> group.copies.sort(Comparator.naturalOrder()));
+        groups.sort(Comparator.comparing(group -> group.copies.get(0)));
+        return groups;
+    }
+
+    /**
+     * Returns the copy which should be kept.
+     * This is the copy referenced by most playlists. If equal the first one in path order.
+     * @param group group of copies
+     * @return
+     */
+    public Path canonical(Group group) {
+        Path best = null;
+        int most = -1;
+        for (Path copy : group.copies) {
+            int count = refs.getOrDefault(copy, List.of()).size();
+            if (count > most) {
+                best = copy;
+                most = count;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Prints the groups of copies together with the playlists referencing each copy.
+     * The copy which would be kept during merge is marked with '*'.
+     * @param groups groups of copies
+     * @param out where report is written
+     */
+    public void report(List<Group> groups, PrintStream out) {
+        groups.forEach(group -> {
+            Path keep = canonical(group);
+            out.format("# %d bytes, %d copies\n", group.size, group.copies.size());
+            group.copies.forEach(copy -> out.format("%s%s\t%s\n", copy.equals(keep) ? "*" : " ", relative(copy),
+                refs.getOrDefault(copy, List.of()).stream().map(list -> list.getName()).collect(Collectors.joining(", "))));
+        });
+        out.flush();
+    }
+
+    /**
+     * Changes all playlists to reference only the canonical copy of each group.
+     * A playlist which already references the canonical copy loses the entries of the other copies.
+     * The other copies are not deleted.
+     * @param groups groups of copies
+     * @param factory playlists to be changed
+     */
+    public void merge(List<Group> groups, PlaylistList factory) {
+        groups.forEach(group -> {
+            Song keep = new Song(context, canonical(group), false);
+            group.copies.stream()
+                .filter(copy -> !copy.equals(keep.getPath()) && refs.containsKey(copy))
+                .forEach(copy -> {
+                    Song dup = new Song(context, copy, false);
+                    factory.change(list -> refs.get(copy).contains(list), list -> {
+                        if (list.entries().anyMatch(entry -> entry.equals(keep))) list.remove(list.entries().filter(entry -> entry.equals(dup)));
+                        else list.move(dup, keep);
+                    });
+                });
+        });
+    }
+
+    private List<List<Path>> refine(List<List<Path>> groups, Function<Path, String> hasher) {
+        List<Path> all = groups.stream().flatMap(paths -> paths.stream()).collect(Collectors.toList());
+        Map<Path, Future<String>> futures = new LinkedHashMap<>();
+        Map<Path, String> hashes = new HashMap<>();
+        try {
+            all.forEach(path -> futures.put(path, context.getJobs().submit(() -> hasher.apply(path))));
+            for (Map.Entry<Path, Future<String>> future : futures.entrySet()) {
+                hashes.put(future.getKey(), future.getValue().get());
+            }
+        }
+        catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause().getMessage(), ex.getCause());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Hashing interrupted", ex);
+        }
+        return groups.stream()
+            .flatMap(paths -> paths.stream().collect(Collectors.groupingBy(path -> hashes.get(path), LinkedHashMap::new, Collectors.toList())).values().stream())
+            .filter(paths -> paths.size() > 1)
+            .collect(Collectors.toList());
+    }
+
+    private static String hash(Path path, long size, boolean partial) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (partial && (size > 2 * PARTIAL)) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, PARTIAL));
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, size - PARTIAL, PARTIAL));
+            }
+            else {
+                for (long position = 0; position < size; position += CHUNK) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK, size - position));
+                    digest.update(buffer);
+                }
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) hex.append(String.format("%02x", b));
+            return hex.toString();
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Cannot read song: " + path.toString(), ex);
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex.getMessage(), ex);
+        }
+    }
+
+    private String relative(Path path) {
+        return base.relativize(path).toString().replace("\\", "/");
+    }
+}
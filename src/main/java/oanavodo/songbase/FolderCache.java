@@ -0,0 +1,104 @@
+package oanavodo.songbase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cached model of folder contents.
+ * Each folder is listed only once. Afterwards all questions about it are answered from memory.
+ * Planned file operations can be registered so the model reflects the state after the plan.
+ * @author Reiner
+ */
+public class FolderCache {
+
+    private final Map<Path, Set<String>> folders = new HashMap<>();
+    private final Map<Path, Path> reals = new HashMap<>();
+
+    /**
+     * Returns true if the path is an existing folder.
+     * @param folder folder path
+     * @return
+     */
+    public boolean isDirectory(Path folder) {
+        return names(folder) != null;
+    }
+
+    /**
+     * Returns true if the file exists in the model.
+     * @param file file path
+     * @return
+     */
+    public boolean exists(Path file) {
+        Set<String> names = names(file.getParent());
+        return (names != null) && names.contains(file.getFileName().toString());
+    }
+
+    /**
+     * Returns true if both folders point to the same folder in the file system.
+     * @param a first folder
+     * @param b second folder
+     * @return
+     */
+    public boolean isSameFolder(Path a, Path b) {
+        Path reala = real(a);
+        return (reala != null) && reala.equals(real(b));
+    }
+
+    /**
+     * Registers a planned creation of a file.
+     * @param file file path
+     */
+    public void add(Path file) {
+        Set<String> names = names(file.getParent());
+        if (names != null) names.add(file.getFileName().toString());
+    }
+
+    /**
+     * Registers a planned deletion of a file.
+     * @param file file path
+     */
+    public void remove(Path file) {
+        Set<String> names = names(file.getParent());
+        if (names != null) names.remove(file.getFileName().toString());
+    }
+
+    private Set<String> names(Path folder) {
+        Path key = folder.toAbsolutePath().normalize();
+        if (folders.containsKey(key)) return folders.get(key);
+        Set<String> names;
+        try (Stream<Path> list = Files.list(key)) {
+            names = list.map(path -> path.getFileName().toString()).collect(Collectors.toCollection(HashSet::new));
+        }
+        catch (NoSuchFileException | NotDirectoryException ex) {
+            names = null;
+        }
+        catch (IOException ex) {
+            throw new RuntimeException(ex.getMessage(), ex.getCause());
+        }
+        folders.put(key, names);
+        return names;
+    }
+
+    private Path real(Path folder) {
+        Path key = folder.toAbsolutePath().normalize();
+        if (reals.containsKey(key)) return reals.get(key);
+        Path real;
+        try {
+            real = key.toRealPath();
+        }
+        catch (IOException ex) {
+            real = null;
+        }
+        reals.put(key, real);
+        return real;
+    }
+}
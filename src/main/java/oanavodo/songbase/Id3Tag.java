@@ -0,0 +1,158 @@
+package oanavodo.songbase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Interpret and title of a song read from its ID3v2 or ID3v1 tag.
+ * Of an ID3v2 tag only the frame headers and the text of the interpret and title frames are read with positioned reads.
+ * Other frames (e.g. pictures) are skipped. The ID3v1 tag at the end of the file is used if there is no ID3v2 tag with both.
+ * @author Reiner
+ */
+public class Id3Tag {
+
+    // longer texts are cut
+    private static final int MAXTEXT = 1024;
+
+    private final String interpret;
+    private final String title;
+
+    private Id3Tag(String interpret, String title) {
+        this.interpret = interpret;
+        this.title = title;
+    }
+
+    public String getInterpret() {
+        return interpret;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Reads the tag of a song file.
+     * @param file song file
+     * @return tag or null if the file has no tag with interpret and title
+     * @throws IOException
+     */
+    public static Id3Tag read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Id3Tag tag = readV2(channel);
+            return (tag != null) ? tag : readV1(channel);
+        }
+    }
+
+    /**
+     * Creates a tag from cached texts.
+     * @param interpret interpret or null
+     * @param title title or null
+     * @return tag or null if interpret or title is missing
+     */
+    static Id3Tag of(String interpret, String title) {
+        interpret = clean(interpret);
+        title = clean(title);
+        return ((interpret != null) && (title != null)) ? new Id3Tag(interpret, title) : null;
+    }
+
+    private static Id3Tag readV2(FileChannel channel) throws IOException {
+        ByteBuffer header = Mp3Header.read(channel, 0, 10);
+        if ((header.limit() < 10) || !Mp3Header.text(header, 0, 3).equals("ID3")) return null;
+        int version = header.get(3);
+        int flags = header.get(5);
+        // unsynchronisation of the whole tag changes all frame sizes
+        if ((version < 2) || (version > 4) || (((flags & 0x80) != 0) && (version < 4))) return null;
+        long end = 10 + syncsafe(header, 6);
+        long pos = 10;
+        if (((flags & 0x40) != 0) && (version > 2)) {
+            ByteBuffer extended = Mp3Header.read(channel, pos, 4);
+            if (extended.limit() < 4) return null;
+            pos += (version == 4) ? syncsafe(extended, 0) : 4 + extended.getInt(0);
+        }
+        int size = (version == 2) ? 6 : 10;
+        String interpret = null;
+        String title = null;
+        while ((pos + size <= end) && ((interpret == null) || (title == null))) {
+            ByteBuffer frame = Mp3Header.read(channel, pos, size);
+            if ((frame.limit() < size) || (frame.get(0) == 0)) break;
+            String id = Mp3Header.text(frame, 0, (version == 2) ? 3 : 4);
+            long length = (version == 2) ? ((frame.get(3) & 0xFF) << 16) | ((frame.get(4) & 0xFF) << 8) | (frame.get(5) & 0xFF)
+                : (version == 3) ? frame.getInt(4) & 0xFFFFFFFFL : syncsafe(frame, 4);
+            long data = pos + size;
+            pos = data + length;
+            boolean wanted = id.equals("TPE1") || id.equals("TP1") || id.equals("TIT2") || id.equals("TT2");
+            if (!wanted || (length < 1)) continue;
+            int skip = 0;
+            boolean unsync = false;
+            if (version == 3) {
+                // compressed or encrypted
+                if ((frame.get(9) & 0xC0) != 0) continue;
+                if ((frame.get(9) & 0x20) != 0) skip++;
+            }
+            else if (version == 4) {
+                if ((frame.get(9) & 0x0C) != 0) continue;
+                if ((frame.get(9) & 0x40) != 0) skip++;
+                if ((frame.get(9) & 0x01) != 0) skip += 4;
+                unsync = ((frame.get(9) & 0x02) != 0) || ((flags & 0x80) != 0);
+            }
+            if (length <= skip) continue;
+            ByteBuffer content = Mp3Header.read(channel, data + skip, (int)Math.min(length - skip, MAXTEXT));
+            if (unsync) content = resync(content);
+            String text = decode(content);
+            if (id.startsWith("TP")) interpret = clean(text);
+            else title = clean(text);
+        }
+        return of(interpret, title);
+    }
+
+    private static Id3Tag readV1(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < 128) return null;
+        ByteBuffer tag = Mp3Header.read(channel, size - 128, 128);
+        if ((tag.limit() < 128) || !Mp3Header.text(tag, 0, 3).equals("TAG")) return null;
+        return of(Mp3Header.text(tag, 33, 30), Mp3Header.text(tag, 3, 30));
+    }
+
+    // text frame: encoding byte followed by the text, in version 4 several texts are separated by null
+    private static String decode(ByteBuffer content) {
+        if (content.limit() < 1) return null;
+        int encoding = content.get(0);
+        Charset cs = (encoding == 1) ? StandardCharsets.UTF_16 : (encoding == 2) ? StandardCharsets.UTF_16BE : (encoding == 3) ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+        int width = ((encoding == 1) || (encoding == 2)) ? 2 : 1;
+        int end = 1;
+        while ((end + width <= content.limit()) && ((content.get(end) != 0) || ((width == 2) && (content.get(end + 1) != 0)))) end += width;
+        byte[] bytes = new byte[end - 1];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = content.get(1 + i);
+        return new String(bytes, cs);
+    }
+
+    // removes the null byte inserted after each 0xFF
+    private static ByteBuffer resync(ByteBuffer content) {
+        ByteBuffer result = ByteBuffer.allocate(content.limit());
+        for (int i = 0; i < content.limit(); i++) {
+            byte b = content.get(i);
+            result.put(b);
+            if ((b == (byte)0xFF) && (i + 1 < content.limit()) && (content.get(i + 1) == 0)) i++;
+        }
+        result.flip();
+        return result;
+    }
+
+    // texts are kept in a line based cache
+    private static String clean(String text) {
+        if (text == null) return null;
+        text = text.replaceAll("[\\p{Cntrl}]+", " ").trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static long syncsafe(ByteBuffer data, int pos) {
+        long value = 0;
+        for (int i = pos; i < pos + 4; i++) value = (value << 7) | (data.get(i) & 0x7F);
+        return value;
+    }
+}
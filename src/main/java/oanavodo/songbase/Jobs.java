@@ -0,0 +1,156 @@
+package oanavodo.songbase;
+
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Executor for all parallel work of an operation (discovery, checks, writes, moves, hashing).
+ * The number of threads is taken from the jobs option. Parallel work is never nested, so there are never more
+ * threads busy than jobs. With one job all tasks are run in the calling thread in submit order.
+ * With option virtual and Java 21 or later each task is run in its own virtual thread instead. Then jobs limits
+ * the number of tasks running at the same time, so it can be set much higher for file systems with high latency.
+ * @author Reiner
+ */
+public class Jobs {
+
+    // Executors.newVirtualThreadPerTaskExecutor if supported by the running Java
+    private static final Method VIRTUAL = lookupVirtual();
+
+    // set while a task is run in a virtual thread
+    private static final ThreadLocal<Boolean> WORKER = ThreadLocal.withInitial(() -> false);
+
+    private final Options options;
+    private final PrintStream log;
+    private ForkJoinPool pool = null;
+    private ExecutorService virtual = null;
+    private Semaphore running = null;
+    private int limit = 0;
+    private boolean warned = false;
+
+    /**
+     * Creates an executor. The pool is created when it is used first.
+     * @param options options with number of jobs
+     * @param log where problems are reported
+     */
+    public Jobs(Options options, PrintStream log) {
+        this.options = options;
+        this.log = log;
+    }
+
+    /**
+     * Returns the pool with parallelism of the jobs option.
+     * @return
+     */
+    public synchronized ForkJoinPool getPool() {
+        int parallel = getParallelism();
+        if ((pool == null) || (pool.getParallelism() != parallel)) {
+            if (pool != null) pool.shutdown();
+            pool = new ForkJoinPool(parallel);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the number of tasks which are run at the same time.
+     * @return
+     */
+    public int getParallelism() {
+        return Math.max(1, options.getJobs());
+    }
+
+    /**
+     * Returns whether the calling thread runs a task of an executor. Tasks should not wait for further tasks then.
+     * @return
+     */
+    public boolean isWorker() {
+        return WORKER.get() || ForkJoinTask.inForkJoinPool();
+    }
+
+    /**
+     * Submits a task to the pool.
+     * With one job the task is run immediately in the calling thread.
+     * @param <T> result type
+     * @param task task to be run
+     * @return
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        if (getParallelism() > 1) {
+            ExecutorService executor = options.isVirtual() ? getVirtual() : null;
+            if (executor == null) return getPool().submit(task);
+            Semaphore permits = running;
+            return executor.submit(() -> {
+                permits.acquire();
+                WORKER.set(true);
+                try {
+                    return task.call();
+                }
+                finally {
+                    WORKER.set(false);
+                    permits.release();
+                }
+            });
+        }
+        CompletableFuture<T> done = new CompletableFuture<>();
+        try {
+            done.complete(task.call());
+        }
+        catch (Exception ex) {
+            done.completeExceptionally(ex);
+        }
+        return done;
+    }
+
+    /**
+     * Submits a task to the pool.
+     * With one job the task is run immediately in the calling thread.
+     * @param task task to be run
+     * @return
+     */
+    public Future<?> submit(Runnable task) {
+        return submit(Executors.callable(task));
+    }
+
+    /**
+     * Returns the executor with one virtual thread per task.
+     * @return executor or null if virtual threads are not supported
+     */
+    private synchronized ExecutorService getVirtual() {
+        if ((virtual == null) && (VIRTUAL != null)) {
+            try {
+                virtual = (ExecutorService)VIRTUAL.invoke(null);
+            }
+            catch (ReflectiveOperationException | RuntimeException ex) {
+                // e.g. preview feature not enabled
+                virtual = null;
+            }
+        }
+        if (virtual == null) {
+            if (!warned) log.println("SONGBASE: Virtual threads need Java 21, using thread pool");
+            warned = true;
+            return null;
+        }
+        int parallel = getParallelism();
+        if ((running == null) || (limit != parallel)) {
+            running = new Semaphore(parallel);
+            limit = parallel;
+        }
+        return virtual;
+    }
+
+    private static Method lookupVirtual() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package oanavodo.songbase;
+
+/**
+ * Minimal helpers for writing JSON reports.
+ * @author Reiner
+ */
+public class Json {
+
+    private Json() {}
+
+    /**
+     * Returns a string as quoted JSON string literal.
+     * @param text string to be quoted
+     * @return
+     */
+    public static String quote(String text) {
+        StringBuilder out = new StringBuilder(text.length() + 2);
+        out.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch(c) {
+            case '"':
+                out.append("\\\"");
+                break;
+            case '\\':
+                out.append("\\\\");
+                break;
+            case '\n':
+                out.append("\\n");
+                break;
+            case '\r':
+                out.append("\\r");
+                break;
+            case '\t':
+                out.append("\\t");
+                break;
+            default:
+                if (c < 0x20) out.append(String.format("\\u%04x", (int)c));
+                else out.append(c);
+            }
+        }
+        out.append('"');
+        return out.toString();
+    }
+}
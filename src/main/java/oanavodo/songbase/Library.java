@@ -0,0 +1,265 @@
+package oanavodo.songbase;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import oanavodo.songbase.playlist.Playlist;
+import oanavodo.songbase.playlist.PlaylistList;
+
+/**
+ * Entry point for using songbase from Java code instead of the command line.
+ * The playlists of the base folder are read once on first use and kept between calls, so a sequence of
+ * operations does not read all playlists again. Operations return their results instead of printing them.
+ * Example: {@code Library.open(base).remove(list).from(Library.allPlaylists()).run()}
+ * @author Reiner
+ */
+public class Library {
+
+    /**
+     * Result of a change of playlists.
+     * Playlists which could not be written do not stop the change of the other playlists, they are reported here.
+     */
+    public static class Result {
+        private final List<Path> changed;
+        private final int unchanged;
+        private final List<Path> skipped;
+        private final Map<Path, String> failed;
+
+        private Result(List<Path> changed, int unchanged, List<Path> skipped, Map<Path, String> failed) {
+            this.changed = changed;
+            this.unchanged = unchanged;
+            this.skipped = skipped;
+            this.failed = failed;
+        }
+
+        /**
+         * Returns the playlists whose entries have been changed.
+         * @return
+         */
+        public List<Path> getChanged() {
+            return changed;
+        }
+
+        /**
+         * Returns the number of changed playlists which have been written.
+         * @return
+         */
+        public int getWritten() {
+            return changed.size() - unchanged - skipped.size() - failed.size();
+        }
+
+        /**
+         * Returns the number of changed playlists which have not been written because their content would not change.
+         * @return
+         */
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * Returns the changed playlists which have not been written because they are locked by another run or have been
+         * changed by another program (lock policy 'skip').
+         * @return
+         */
+        public List<Path> getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * Returns the changed playlists which could not be written together with the reason.
+         * @return
+         */
+        public Map<Path, String> getFailed() {
+            return failed;
+        }
+    }
+
+    /**
+     * A change of playlists by the songs of one playlist or song. Nothing is done before {@link #run()}.
+     */
+    public class Change {
+        private final Path that;
+        private final boolean remove;
+        private Predicate<Path> selection = allPlaylists();
+        private boolean sorted = false;
+
+        private Change(Path that, boolean remove) {
+            this.that = that;
+            this.remove = remove;
+        }
+
+        /**
+         * Selects the playlists the songs are added to.
+         * @param selection playlists to be changed
+         * @return
+         */
+        public Change to(Predicate<Path> selection) {
+            this.selection = selection;
+            return this;
+        }
+
+        /**
+         * Selects the playlists the songs are removed from.
+         * @param selection playlists to be changed
+         * @return
+         */
+        public Change from(Predicate<Path> selection) {
+            this.selection = selection;
+            return this;
+        }
+
+        /**
+         * Sets whether changed playlists are sorted before writing.
+         * @param sorted whether changed playlists are sorted
+         * @return
+         */
+        public Change sorted(boolean sorted) {
+            this.sorted = sorted;
+            return this;
+        }
+
+        /**
+         * Changes and writes the selected playlists.
+         * The playlist or song the change is based on is never changed itself.
+         * @return changed, skipped and failed playlists
+         */
+        public Result run() {
+            PlaylistList factory = getPlaylists();
+            Path skip = that.toAbsolutePath().normalize();
+            Playlist source = factory.getPlaylist(skip);
+            Playlist songs = (source != null) ? source : Playlist.ofPlaylistOrSong(context, that);
+            Predicate<Playlist> selected = list -> !list.getPath().equals(skip) && selection.test(list.getPath());
+            factory.change(selected, list -> {
+                if (remove) list.remove(songs.entries());
+                else list.add(songs.entries());
+            });
+            List<Path> changed = factory.stream().filter(selected.and(list -> list.isChanged())).map(list -> list.getPath()).collect(Collectors.toList());
+            int unchanged = context.getSkipped();
+            List<Path> skipped = new ArrayList<>();
+            Map<Path, String> failed = new LinkedHashMap<>();
+            factory.update(sorted, failed, skipped);
+            return new Result(changed, context.getSkipped() - unchanged, skipped, failed);
+        }
+    }
+
+    private final SongBaseContext context;
+    private final Path base;
+    private PlaylistList playlists = null;
+
+    private Library(SongBaseContext context, Path base) {
+        this.context = context;
+        this.base = base.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Opens the music library of a base folder with default options.
+     * @param base base folder of the playlists
+     * @return
+     */
+    public static Library open(Path base) {
+        return open(new SongBaseContext(new Options()), base);
+    }
+
+    /**
+     * Opens the music library of a base folder.
+     * @param context context of all operations on the library
+     * @param base base folder of the playlists
+     * @return
+     */
+    public static Library open(SongBaseContext context, Path base) {
+        return new Library(context, base);
+    }
+
+    /**
+     * Selects all playlists of the library.
+     * @return
+     */
+    public static Predicate<Path> allPlaylists() {
+        return path -> true;
+    }
+
+    /**
+     * Selects some playlists of the library.
+     * @param paths paths of the playlists
+     * @return
+     */
+    public static Predicate<Path> playlists(Path... paths) {
+        Set<Path> selected = Arrays.stream(paths).map(path -> path.toAbsolutePath().normalize()).collect(Collectors.toSet());
+        return path -> selected.contains(path);
+    }
+
+    public SongBaseContext getContext() {
+        return context;
+    }
+
+    public Path getBase() {
+        return base;
+    }
+
+    /**
+     * Returns all playlists of the library. They are read on first call.
+     * @return
+     */
+    public synchronized PlaylistList getPlaylists() {
+        if (playlists == null) playlists = new PlaylistList(context, base, true);
+        return playlists;
+    }
+
+    /**
+     * Forgets the playlists read so far and releases their locks. Needed if playlists have been changed by somebody else.
+     * @return
+     */
+    public synchronized Library reload() {
+        playlists = null;
+        context.releaseLocks();
+        return this;
+    }
+
+    /**
+     * Prepares adding the songs of a playlist or a single song to playlists.
+     * @param that playlist or song to be added
+     * @return
+     */
+    public Change add(Path that) {
+        return new Change(that, false);
+    }
+
+    /**
+     * Prepares removing the songs of a playlist or a single song from playlists.
+     * @param that playlist or song to be removed
+     * @return
+     */
+    public Change remove(Path that) {
+        return new Change(that, true);
+    }
+
+    /**
+     * Checks if the songs of all playlists exist.
+     * @return
+     */
+    public SongCheck.Report check() {
+        return new SongCheck(context, base).check(getPlaylists().stream());
+    }
+
+    /**
+     * Finds the song files of the base folder tree which are not referenced by any playlist.
+     * @return songs sorted by path
+     */
+    public List<Song> orphans() {
+        return new Orphans(context, base, getPlaylists()).find();
+    }
+
+    /**
+     * Finds byte identical song files of the base folder tree.
+     * @return groups sorted by path of first copy
+     */
+    public List<Duplicates.Group> duplicates() {
+        return new Duplicates(context, base, getPlaylists()).find();
+    }
+}
@@ -0,0 +1,181 @@
+package oanavodo.songbase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metadata of song files (duration, interpret and title) read from the mp3 headers and ID3 tags.
+ * Results are remembered in a cache file in the base folder together with size and modification time of each song file.
+ * In a later run only songs not read before and songs with a changed size or modification time are read again.
+ * The song files are read in parallel.
+ * @author Reiner
+ */
+public class MetadataCache {
+
+    public static final String NAME = ".songbase-meta";
+
+    private static final String HEADER = "#SONGBASE-META";
+
+    private static class Metadata {
+        private final long size;
+        private final long modified;
+        private final long duration;
+        private final Id3Tag tag;
+
+        private Metadata(long size, long modified, long duration, Id3Tag tag) {
+            this.size = size;
+            this.modified = modified;
+            this.duration = duration;
+            this.tag = tag;
+        }
+    }
+
+    private final SongBaseContext context;
+    private final Path cache;
+    private final Map<Path, Metadata> songs = new ConcurrentHashMap<>();
+    private final AtomicInteger read = new AtomicInteger(0);
+    private volatile boolean changed = false;
+
+    /**
+     * Creates a metadata reader which uses the cache file in the base folder.
+     * @param context context of the operation
+     * @param base base folder
+     */
+    public MetadataCache(SongBaseContext context, Path base) {
+        this.context = context;
+        this.cache = base.resolve(NAME);
+        load();
+    }
+
+    /**
+     * Returns the durations of songs.
+     * @param files song files
+     * @return duration in milliseconds by song file, -1 if not known
+     */
+    public Map<Path, Long> getDurations(Collection<Path> files) {
+        Map<Path, Future<Metadata>> results = new LinkedHashMap<>();
+        Map<Path, Long> durations = new HashMap<>();
+        try {
+            for (Path file : files) results.put(file, context.getJobs().submit(() -> lookup(file)));
+            for (Map.Entry<Path, Future<Metadata>> result : results.entrySet()) {
+                Metadata data = result.getValue().get();
+                durations.put(result.getKey(), (data != null) ? data.duration : -1L);
+            }
+        }
+        catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause().getMessage(), ex.getCause());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Reading metadata interrupted", ex);
+        }
+        save();
+        return durations;
+    }
+
+    /**
+     * Returns interpret and title of a song from its tag.
+     * Can be called by several threads at the same time. The cache file is written by {@link #save()}.
+     * @param file song file
+     * @return tag or null if the song file has no tag with interpret and title
+     */
+    public Id3Tag getTag(Path file) {
+        Metadata data = lookup(file);
+        return (data != null) ? data.tag : null;
+    }
+
+    /**
+     * Returns the number of song files which had to be read because they were not cached or have been changed.
+     * @return
+     */
+    public int getRead() {
+        return read.get();
+    }
+
+    private Metadata lookup(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(key, BasicFileAttributes.class);
+        }
+        catch (IOException ex) {
+            if (songs.remove(key) != null) changed = true;
+            return null;
+        }
+        long modified = attrs.lastModifiedTime().toMillis();
+        Metadata cached = songs.get(key);
+        if ((cached != null) && (cached.size == attrs.size()) && (cached.modified == modified)) return cached;
+        long duration = -1;
+        Id3Tag tag = null;
+        try {
+            // other formats are not detected
+            if (key.getFileName().toString().toLowerCase().endsWith(".mp3")) {
+                duration = Mp3Header.readDuration(key);
+                tag = Id3Tag.read(key);
+            }
+        }
+        catch (IOException ex) {
+            context.getLog().format("SONG: Cannot read header of %s: %s\n", key.toString(), ex.getMessage());
+            return null;
+        }
+        Metadata data = new Metadata(attrs.size(), modified, duration, tag);
+        songs.put(key, data);
+        read.incrementAndGet();
+        changed = true;
+        return data;
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(cache)) return;
+        try (BufferedReader reader = Files.newBufferedReader(cache, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if ((line == null) || !line.equals(HEADER)) return;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 6);
+                if (parts.length != 6) throw new IOException("Invalid cache line: " + line);
+                Id3Tag tag = Id3Tag.of(parts[3], parts[4]);
+                songs.put(Paths.get(parts[5]), new Metadata(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]), tag));
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            // a damaged cache only costs reading all songs again
+            context.getLog().format("SONGBASE: Ignoring cache %s: %s\n", cache.toString(), ex.getMessage());
+            songs.clear();
+        }
+    }
+
+    /**
+     * Writes the cache file if songs have been read. Nothing is written in dryrun.
+     */
+    public void save() {
+        if (!changed || context.getOptions().isDryrun()) return;
+        changed = false;
+        Path temp = cache.resolveSibling(NAME + ".tmp");
+        try {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8))) {
+                out.print(HEADER + "\n");
+                songs.forEach((path, data) -> out.format("%d\t%d\t%d\t%s\t%s\t%s\n", data.size, data.modified, data.duration,
+                    (data.tag != null) ? data.tag.getInterpret() : "", (data.tag != null) ? data.tag.getTitle() : "", path.toString()));
+            }
+            Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException ex) {
+            context.getLog().format("SONGBASE: Cannot write cache %s: %s\n", cache.toString(), ex.getMessage());
+        }
+    }
+}
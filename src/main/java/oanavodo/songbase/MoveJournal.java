@@ -0,0 +1,396 @@
+package oanavodo.songbase;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import oanavodo.songbase.MovePlan.Action;
+import oanavodo.songbase.MovePlan.Move;
+import oanavodo.songbase.playlist.Playlist;
+import oanavodo.songbase.playlist.PlaylistList;
+
+/**
+ * Append-only journal of a running map operation.
+ * The journal contains the move plan followed by a record before and after each file operation and each playlist write.
+ * Every record is forced to disk before the operation continues. If a run dies halfway the journal is used
+ * to finish (replay) or to undo (rollback) the operation. After a successful run the journal is removed.
+ * @author Reiner
+ */
+public class MoveJournal implements Closeable {
+
+    public static final String NAME = ".songbase-journal";
+
+    private static final String HEADER = "#SONGBASE-JOURNAL";
+    private static final String BASE = "#BASE ";
+    private static final String LIST = "#LIST ";
+    private static final String ROOT = "#ROOT ";
+
+    public static enum Mode { REPLAY, ROLLBACK };
+
+    private final Path path;
+    private final MovePlan plan;
+    private final FileChannel channel;
+
+    private MoveJournal(Path path, MovePlan plan) throws IOException {
+        this.path = path;
+        this.plan = plan;
+        this.channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Returns the journal location of a base folder.
+     * @param base base folder of the playlists
+     * @return
+     */
+    public static Path locate(Path base) {
+        return base.resolve(NAME);
+    }
+
+    /**
+     * Creates a new journal for a move plan.
+     * The journal is stored in the base folder of the playlists.
+     * Fails if an unfinished journal of a previous run exists.
+     * The header and the plan are written to a temporary file which is renamed afterwards, so a journal is never left incomplete.
+     * @param plan plan to be executed
+     * @param root base folder of all playlists which are updated
+     * @return
+     */
+    public static MoveJournal create(MovePlan plan, Path root) {
+        Path path = locate(root);
+        if (Files.exists(path)) throw new RuntimeException("Unfinished journal found, please use '--recover' first: " + path.toString());
+        Path temp = path.resolveSibling(NAME + ".tmp");
+        try {
+            StringBuilder header = new StringBuilder();
+            header.append(HEADER).append('\n');
+            header.append(BASE).append(plan.getBase().toString()).append('\n');
+            header.append(LIST).append(MovePlan.formatList(plan.getList())).append('\n');
+            header.append(ROOT).append(root.toString()).append('\n');
+            plan.getMoves().forEach(move -> header.append(plan.format(move)).append('\n'));
+            // a temporary file left over from an interrupted run is overwritten
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(header.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) out.write(buffer);
+                out.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            return new MoveJournal(path, plan);
+        }
+        catch (IOException ex) {
+            try {
+                Files.deleteIfExists(temp);
+            }
+            catch (IOException ignore) {}
+            throw new RuntimeException("Cannot create journal: " + path.toString(), ex);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Records that a file operation is going to be started.
+     * @param move planned move
+     */
+    public void begin(Move move) {
+        record("BEGIN\t" + plan.escaped(move.getSource()) + "\n");
+    }
+
+    /**
+     * Records that a file operation has been done.
+     * @param move executed move
+     */
+    public void done(Move move) {
+        record("DONE\t" + plan.escaped(move.getSource()) + "\t" + move.getDone() + "\n");
+    }
+
+    /**
+     * Records that a file operation has failed.
+     * @param move failed move
+     */
+    public void failed(Move move) {
+        record("FAIL\t" + plan.escaped(move.getSource()) + "\n");
+    }
+
+    /**
+     * Writes all changed playlists. The writes are recorded as one batch before and after.
+     * The playlists of the factory are written in parallel (see {@link PlaylistList#update(boolean)}).
+     * @param that playlist the plan is based on (may be null)
+     * @param factory other playlists
+     * @param sorted whether playlists should be sorted before writing
+     */
+    public void update(Playlist that, PlaylistList factory, boolean sorted) {
+        List<String> names = Stream.concat(Stream.ofNullable(that), factory.stream())
+            .filter(list -> list.isChanged())
+            .map(list -> (list.getPath() != null) ? list.getPath().toString() : list.getName())
+            .collect(Collectors.toList());
+        if (names.isEmpty()) return;
+        record(names.stream().map(name -> "WRITE\t" + name + "\n").collect(Collectors.joining()));
+        RuntimeException failure = null;
+        try {
+            if (that != null) that.update(sorted);
+        }
+        catch (RuntimeException ex) {
+            // the other playlists are written anyway
+            failure = ex;
+        }
+        try {
+            factory.update(sorted);
+        }
+        catch (RuntimeException ex) {
+            if (failure != null) ex.addSuppressed(failure);
+            throw ex;
+        }
+        if (failure != null) throw failure;
+        record(names.stream().map(name -> "WRITTEN\t" + name + "\n").collect(Collectors.joining()));
+    }
+
+    /**
+     * Marks the journal as finished and removes it.
+     */
+    public void commit() {
+        record("COMMIT\n");
+        close();
+        try {
+            Files.delete(path);
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Cannot remove journal: " + path.toString(), ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (channel.isOpen()) channel.close();
+        }
+        catch (IOException ex) {
+            throw new RuntimeException(ex.getMessage(), ex.getCause());
+        }
+    }
+
+    private synchronized void record(String text) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Cannot write journal: " + path.toString(), ex);
+        }
+    }
+
+    /**
+     * Recovers from an unfinished map operation.
+     * REPLAY: all moves not done yet are executed and all playlists are updated to reflect all moves.
+     * ROLLBACK: all songs already moved are moved back and all playlists are updated to reflect the original locations.
+     * Songs which have been deleted because they already existed in the target folder cannot be restored.
+     * A journal without any started move is removed without changes.
+     * @param context context of the operation
+     * @param base base folder where the journal is located
+     * @param mode recovery mode
+     * @param sorted whether written playlists should be sorted
+     */
+    public static void recover(SongBaseContext context, Path base, Mode mode, boolean sorted) {
+        Path path = locate(base);
+        if (!Files.isRegularFile(path)) throw new RuntimeException("No journal found: " + path.toString());
+        State state = read(path);
+        if (state.committed || !state.started) {
+            // no song has been touched if the run died before the first move
+            context.getLog().format("JOURNAL: %s %s\n", path.toString(), state.committed ? "is already finished" : "has no started moves, nothing to recover");
+            try {
+                Files.delete(path);
+            }
+            catch (IOException ex) {
+                throw new RuntimeException("Cannot remove journal: " + path.toString(), ex);
+            }
+            return;
+        }
+        MovePlan plan = state.plan;
+        plan.getMoves().forEach(move -> move.setDone(state.detect(move)));
+
+        // a playlist read from stdin cannot be read again, only the other playlists are updated
+        Playlist that = (plan.getList() != null) ? Playlist.of(context, plan.getList()) : null;
+        PlaylistList factory = new PlaylistList(context, state.root, true);
+        if (that != null) factory.removePlaylist(that);
+
+        context.getLog().format("JOURNAL: %s %s based on %s\n", (mode == Mode.REPLAY) ? "Replaying" : "Rolling back", path.toString(), (that != null) ? that.getName() : "stdin");
+        MoveJournal journal;
+        try {
+            journal = new MoveJournal(path, plan);
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Cannot open journal: " + path.toString(), ex);
+        }
+        try {
+            if (mode == Mode.REPLAY) {
+                plan.execute(that, factory, journal);
+                if (plan.getFailed() > 0) throw new RuntimeException("Not all songs could be moved, journal kept for a further recovery");
+            }
+            else {
+                rollback(plan, that, factory, journal, state.written);
+            }
+            journal.update(that, factory, sorted);
+            journal.commit();
+        }
+        finally {
+            journal.close();
+        }
+    }
+
+    private static void rollback(MovePlan plan, Playlist that, PlaylistList factory, MoveJournal journal, boolean written) {
+        SongBaseContext context = factory.getContext();
+        PrintStream log = context.getLog();
+        Transfer transfer = new Transfer(context);
+        List<Move> moves = new ArrayList<>(plan.getMoves());
+        for (int i = moves.size() - 1; i >= 0; i--) {
+            Move move = moves.get(i);
+            String name = move.getSource().getFileName().toString();
+            String oldfolder = plan.relative(move.getSource().getParent());
+            String newfolder = plan.relative(move.getTarget());
+            if (move.getAction() != Action.MOVE) {
+                if (move.getDone() == null) continue;
+                if (move.getDone() == Action.DELETE) log.format("SONG: Cannot restore deleted %s, %s\n", oldfolder, name);
+                // playlists which already refer to the existing song cannot be distinguished from former references
+                if (written) log.format("SONG: Kept %s, %s\n", newfolder, name);
+                continue;
+            }
+            if (Files.exists(move.getTargetFile()) && !Files.exists(move.getSource())) {
+                log.format("SONG: Moving back %s -> %s, %s\n", newfolder, oldfolder, name);
+                try {
+                    transfer.move(move.getTargetFile(), move.getSource());
+                }
+                catch (IOException ex) {
+                    throw new RuntimeException("Cannot move back " + move.getTargetFile().toString(), ex);
+                }
+                journal.record("UNDO\t" + plan.escaped(move.getSource()) + "\n");
+            }
+            // the target did not exist before, so all references to it are caused by this move
+            Song prev = new Song(context, move.getTargetFile(), false);
+            Song now = new Song(context, move.getSource(), false);
+            if (that != null) that.move(prev, now);
+            factory.move(prev, now);
+        }
+    }
+
+    private static class State {
+        private MovePlan plan;
+        private Path root;
+        private boolean committed = false;
+        private boolean started = false;
+        private boolean written = false;
+        private final Map<String, Action> done = new HashMap<>();
+        private final Set<String> begun = new HashSet<>();
+
+        /**
+         * Detects which action has been done for a move.
+         * For moves without finished record the file system is asked.
+         */
+        private Action detect(Move move) {
+            String key = plan.escaped(move.getSource());
+            Action action = done.get(key);
+            if (action != null) return action;
+            if (move.getAction() == Action.EXISTS) return Action.EXISTS;
+            if (!begun.contains(key)) return null;
+            if (Files.exists(move.getSource())) return null;
+            if ((move.getAction() == Action.MOVE) && !Files.exists(move.getTargetFile())) return null;
+            return move.getAction();
+        }
+    }
+
+    private static State read(Path path) {
+        State state = new State();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            // left empty by a run which died while creating the journal
+            if (line == null) return state;
+            if (!line.trim().equals(HEADER)) throw new RuntimeException("Not a journal: " + path.toString());
+            Path base = null;
+            Path list = null;
+            boolean listed = false;
+            String next = reader.readLine();
+            while ((line = next) != null) {
+                next = reader.readLine();
+                if (line.isBlank()) continue;
+                if (line.startsWith(BASE)) {
+                    base = Paths.get(line.substring(BASE.length()));
+                    continue;
+                }
+                if (line.startsWith(LIST)) {
+                    list = MovePlan.parseList(line.substring(LIST.length()));
+                    listed = true;
+                    continue;
+                }
+                if (line.startsWith(ROOT)) {
+                    state.root = Paths.get(line.substring(ROOT.length()));
+                    continue;
+                }
+                if ((base == null) || !listed || (state.root == null)) throw new RuntimeException("Incomplete journal: " + path.toString());
+                if (state.plan == null) state.plan = new MovePlan(base, list);
+                // target of a move into the plan base is empty
+                String[] parts = line.split("\t", -1);
+                // only the last line may be incomplete if the run died while writing it
+                if ((parts.length < 2) && !parts[0].equals("COMMIT")) {
+                    if (next == null) continue;
+                    throw new RuntimeException("Invalid journal line: " + line);
+                }
+                switch(parts[0]) {
+                case "BEGIN":
+                    state.started = true;
+                    state.begun.add(parts[1]);
+                    break;
+                case "DONE":
+                    try {
+                        state.done.put(parts[1], Action.valueOf(parts[2]));
+                    }
+                    catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {}
+                    break;
+                case "FAIL":
+                    state.begun.remove(parts[1]);
+                    break;
+                case "UNDO":
+                    state.done.remove(parts[1]);
+                    state.begun.remove(parts[1]);
+                    break;
+                case "WRITE":
+                    state.written = true;
+                    break;
+                case "WRITTEN":
+                    break;
+                case "COMMIT":
+                    state.committed = true;
+                    break;
+                default:
+                    Move move = MovePlan.parse(base, line);
+                    if (move != null) state.plan.getMoves().add(move);
+                    else if (next != null) throw new RuntimeException("Invalid journal line: " + line);
+                }
+            }
+            // an incomplete header without records cannot have started any move
+            if ((state.plan == null) && (base != null) && listed && (state.root != null)) state.plan = new MovePlan(base, list);
+            return state;
+        }
+        catch (RuntimeException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new RuntimeException(ex.getMessage(), ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package oanavodo.songbase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import oanavodo.songbase.playlist.Playlist;
+import oanavodo.songbase.playlist.PlaylistList;
+
+/**
+ * Plan of song moves used by the map operation.
+ * During planning all targets are resolved against a cached folder model so conflicts and duplicates
+ * are detected before any file is touched. The moves are grouped by target folder and executed in parallel.
+ * A plan can be written to a file and applied later. Paths of songs are written with escaped tabs, line breaks and backslashes.
+ * @author Reiner
+ */
+public class MovePlan {
+
+    private static final String HEADER = "#SONGBASE-PLAN";
+    private static final String BASE = "#BASE ";
+    private static final String LIST = "#LIST ";
+    // playlist which has been read from stdin
+    private static final String STDIN = "-";
+
+    /**
+     * MOVE: song is moved to target folder.
+     * EXISTS: song already exists in target folder, entries are changed to the existing song.
+     * DELETE: like EXISTS but the song in the source folder is deleted.
+     */
+    public static enum Action { MOVE, EXISTS, DELETE };
+
+    /**
+     * One planned move of a song.
+     */
+    public static class Move {
+        private final Action action;
+        private final Path source;
+        private final Path target;
+        private Action done = null;
+        private Exception failure = null;
+
+        Move(Action action, Path source, Path target) {
+            this.action = action;
+            this.source = source;
+            this.target = target;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        public Path getSource() {
+            return source;
+        }
+
+        public Path getTarget() {
+            return target;
+        }
+
+        public Path getTargetFile() {
+            return target.resolve(source.getFileName());
+        }
+
+        /**
+         * Returns the action which has been done or null if the move has not been executed yet.
+         * @return
+         */
+        public Action getDone() {
+            return done;
+        }
+
+        void setDone(Action done) {
+            this.done = done;
+        }
+
+        public Exception getFailure() {
+            return failure;
+        }
+
+        private Action run(Transfer transfer) throws IOException {
+            switch(action) {
+            case MOVE:
+                try {
+                    transfer.move(source, getTargetFile());
+                    return Action.MOVE;
+                }
+                catch (FileAlreadyExistsException ex) {
+                    // target has been created since planning
+                    return Action.EXISTS;
+                }
+            case DELETE:
+                Files.delete(source);
+                return Action.DELETE;
+            default:
+                return action;
+            }
+        }
+    }
+
+    private final Path base;
+    private final Path list;
+    private final List<Move> moves = new ArrayList<>();
+    private int unmoved = 0;
+
+    MovePlan(Path base, Path list) {
+        this.base = base;
+        this.list = list;
+    }
+
+    /**
+     * Creates the plan for moving all songs of a playlist from one folder into another one.
+     * @param that playlist with songs to be moved
+     * @param from folder relative to playlist base where songs are moved from
+     * @param into folder relative to playlist base where songs are moved to
+     * @param interpret whether songs are moved into an existing folder named equal to the interpret
+     * @param delete whether the source song is deleted if it already exists in the target folder
+     * @return
+     */
+    public static MovePlan ofMapping(Playlist that, String from, Path into, boolean interpret, boolean delete) {
+        Path base = that.getBase();
+        FolderCache cache = new FolderCache();
+        Path to = base.resolve(into).normalize();
+        if (!cache.isDirectory(to)) throw new RuntimeException("To folder not found: " + to.toString());
+
+        Path list = (that.getPath() != null) ? that.getPath().toAbsolutePath().normalize() : null;
+        MovePlan plan = new MovePlan(base, list);
+        Map<Path, Move> planned = new HashMap<>();
+        for (Playlist.Entry song : that.getEntries()) {
+            String folder = song.getFolderString();
+            if (!folder.equals(from)) {
+                plan.unmoved++;
+                continue;
+            }
+            // same song listed several times is moved once
+            if (planned.containsKey(song.getPath())) continue;
+            Path newpath = to;
+            if (interpret) {
+                Path intpath = base.resolve(song.getInterpret()).normalize();
+                if (cache.isDirectory(intpath)) newpath = intpath;
+            }
+            if (cache.isSameFolder(base.resolve(folder), newpath)) {
+                plan.unmoved++;
+                continue;
+            }
+            Path newfile = newpath.resolve(song.getName());
+            Action action = Action.MOVE;
+            if (cache.exists(newfile)) action = delete ? Action.DELETE : Action.EXISTS;
+            Move move = new Move(action, song.getPath(), newpath);
+            planned.put(song.getPath(), move);
+            plan.moves.add(move);
+            if (action != Action.EXISTS) cache.remove(song.getPath());
+            cache.add(newfile);
+        }
+        return plan;
+    }
+
+    /**
+     * Reads a plan which has been written before.
+     * @param file plan file
+     * @return
+     */
+    public static MovePlan read(Path file) {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if ((line == null) || !line.trim().equals(HEADER)) throw new RuntimeException("Not a move plan: " + file.toString());
+            Path base = null;
+            Path list = null;
+            boolean listed = false;
+            List<Move> moves = new ArrayList<>();
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                // song names may start or end with blanks, so only directives are trimmed
+                String directive = line.trim();
+                if (directive.startsWith(BASE)) {
+                    base = Paths.get(directive.substring(BASE.length()));
+                    continue;
+                }
+                if (directive.startsWith(LIST)) {
+                    list = parseList(directive.substring(LIST.length()));
+                    listed = true;
+                    continue;
+                }
+                if (directive.startsWith("#")) continue;
+                Move move = (base != null) ? parse(base, line) : null;
+                if (move == null) throw new RuntimeException("Invalid plan line: " + line);
+                moves.add(move);
+            }
+            if ((base == null) || !listed) throw new RuntimeException("Incomplete move plan: " + file.toString());
+            MovePlan plan = new MovePlan(base, list);
+            plan.moves.addAll(moves);
+            return plan;
+        }
+        catch (RuntimeException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new RuntimeException(ex.getMessage(), ex.getCause());
+        }
+    }
+
+    /**
+     * Writes the plan in a machine readable form.
+     * Paths are written relative to the plan base.
+     * @param out where the plan is written to
+     */
+    public void write(PrintStream out) {
+        out.println(HEADER);
+        out.println(BASE + base.toString());
+        out.println(LIST + formatList(list));
+        moves.forEach(move -> out.println(format(move)));
+        out.flush();
+    }
+
+    /**
+     * Parses one move line of a plan.
+     * @param base base folder of the plan
+     * @param line plan line
+     * @return move or null if line is not a move
+     */
+    static Move parse(Path base, String line) {
+        // target of a move into the plan base is empty
+        String[] parts = line.split("\t", -1);
+        if (parts.length != 3) return null;
+        try {
+            return new Move(Action.valueOf(parts[0]), base.resolve(unescape(parts[1])).normalize(), base.resolve(unescape(parts[2])).normalize());
+        }
+        catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    String format(Move move) {
+        return String.format("%s\t%s\t%s", move.action, escaped(move.source), escaped(move.target));
+    }
+
+    static Path parseList(String text) {
+        return text.equals(STDIN) ? null : Paths.get(text);
+    }
+
+    static String formatList(Path list) {
+        return (list != null) ? list.toString() : STDIN;
+    }
+
+    public Path getBase() {
+        return base;
+    }
+
+    /**
+     * Returns the absolute path of the playlist the plan is based on.
+     * @return path or null if the playlist has been read from stdin
+     */
+    public Path getList() {
+        return list;
+    }
+
+    public List<Move> getMoves() {
+        return moves;
+    }
+
+    /**
+     * Returns the moves grouped by target folder.
+     * @return
+     */
+    public Map<Path, List<Move>> getGroups() {
+        Map<Path, List<Move>> groups = new TreeMap<>();
+        moves.forEach(move -> groups.computeIfAbsent(move.target, key -> new ArrayList<>()).add(move));
+        return groups;
+    }
+
+    /**
+     * Executes the plan.
+     * All file operations are done in parallel. Afterwards all entries of the playlist and all playlists
+     * of the factory are changed in plan order for the successful moves.
+     * Moves which are already done (e.g. during recovery) are not executed again but the playlists are changed.
+     * The plan is executed within the context of the playlist it is based on.
+     * @param that playlist the plan is based on (null if it cannot be read again)
+     * @param factory other playlists which should reflect the moves
+     * @param journal journal where each file operation is recorded before and after it is done (may be null)
+     */
+    public void execute(Playlist that, PlaylistList factory, MoveJournal journal) {
+        SongBaseContext context = factory.getContext();
+        PrintStream log = context.getLog();
+        Map<Move, Future<Action>> results = new LinkedHashMap<>();
+        Transfer transfer = new Transfer(context);
+        long start = System.nanoTime();
+        if (!context.getOptions().isDryrun()) {
+            getGroups().values().forEach(group -> group.stream()
+                .filter(move -> move.done == null)
+                .forEach(move -> results.put(move, context.getJobs().submit(() -> perform(move, transfer, journal)))));
+        }
+
+        Map<Path, Integer> counts = new TreeMap<>();
+        int failed = 0;
+        for (Move move : moves) {
+            Action done = (move.done != null) ? move.done : move.action;
+            Future<Action> result = results.get(move);
+            if (result != null) {
+                try {
+                    done = result.get();
+                }
+                catch (ExecutionException ex) {
+                    move.failure = (ex.getCause() instanceof Exception) ? (Exception)ex.getCause() : ex;
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    move.failure = ex;
+                }
+            }
+            String oldfolder = relative(move.source.getParent());
+            String newfolder = relative(move.target);
+            Path name = move.source.getFileName();
+            if (move.failure != null) {
+                log.format("SONG: Failed %s -> %s, %s: %s\n", oldfolder, newfolder, name, move.failure.toString());
+                failed++;
+                continue;
+            }
+            if (done == Action.MOVE) {
+                log.format("SONG: Moving %s -> %s, %s\n", oldfolder, newfolder, name);
+            }
+            else {
+                log.format("SONG: Exists %s, %s\n", newfolder, name);
+                if (done == Action.DELETE) log.format("SONG: Delete %s, %s\n", oldfolder, name);
+            }
+            Song prev = new Song(context, move.source, false);
+            Song now = new Song(context, move.getTargetFile(), false);
+            if (that != null) that.move(prev, now);
+            factory.move(prev, now);
+            counts.merge(move.target, 1, Integer::sum);
+        }
+        String report = transfer.report(System.nanoTime() - start);
+        if (report != null) log.println(report);
+        counts.forEach((path, count) -> log.format("Moves to %s: %d\n", relative(path), count));
+        log.format("Without move: %d\n", unmoved);
+        if (failed > 0) log.format("Failed moves: %d\n", failed);
+    }
+
+    /**
+     * Returns the number of moves which have failed during execution.
+     * @return
+     */
+    public long getFailed() {
+        return moves.stream().filter(move -> move.failure != null).count();
+    }
+
+    private Action perform(Move move, Transfer transfer, MoveJournal journal) throws IOException {
+        if (journal != null) journal.begin(move);
+        try {
+            move.done = move.run(transfer);
+        }
+        catch (IOException | RuntimeException ex) {
+            if (journal != null) journal.failed(move);
+            throw ex;
+        }
+        if (journal != null) journal.done(move);
+        return move.done;
+    }
+
+    String relative(Path path) {
+        return base.relativize(path).toString().replace("\\", "/");
+    }
+
+    /**
+     * Returns the relative path in the form used in plan and journal lines.
+     */
+    String escaped(Path path) {
+        String text = relative(path);
+        StringBuilder result = new StringBuilder(text.length());
+        for (char c : text.toCharArray()) {
+            switch(c) {
+            case '\\': result.append("\\\\"); break;
+            case '\t': result.append("\\t"); break;
+            case '\n': result.append("\\n"); break;
+            case '\r': result.append("\\r"); break;
+            default: result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String unescape(String text) {
+        if (text.indexOf('\\') == -1) return text;
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c == '\\') && (i + 1 < text.length())) {
+                c = text.charAt(++i);
+                if (c == 't') c = '\t';
+                else if (c == 'n') c = '\n';
+                else if (c == 'r') c = '\r';
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+}
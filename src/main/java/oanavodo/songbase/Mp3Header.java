@@ -0,0 +1,169 @@
+package oanavodo.songbase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Detects the duration of a mp3 file from its headers without decoding the audio.
+ * Only the ID3v2 tag header, the first MPEG frame header and a Xing/Info or VBRI header in this frame are read with
+ * small positioned reads. Without a Xing/Info or VBRI header the file is taken as constant bitrate.
+ * @author Reiner
+ */
+public class Mp3Header {
+
+    // bytes read at once while searching the first frame
+    private static final int CHUNK = 4096;
+    // the first frame is expected within this distance after the ID3v2 tags
+    private static final int MAXSEARCH = 64 * 1024;
+
+    private static final int[][] BITRATES = {
+        // MPEG1 layer 1, 2, 3
+        { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+        { 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+        { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+        // MPEG2 and MPEG2.5 layer 1, 2 and 3
+        { 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+        { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 }
+    };
+
+    private static final int[] SAMPLERATES = { 44100, 48000, 32000 };
+
+    /**
+     * Header of a MPEG audio frame.
+     */
+    private static class Frame {
+        private final boolean mpeg1;
+        private final int layer;
+        private final int bitrate;
+        private final int samplerate;
+        private final boolean mono;
+        private final int length;
+
+        private Frame(boolean mpeg1, int layer, int bitrate, int samplerate, boolean padding, boolean mono) {
+            this.mpeg1 = mpeg1;
+            this.layer = layer;
+            this.bitrate = bitrate;
+            this.samplerate = samplerate;
+            this.mono = mono;
+            this.length = (layer == 1) ? (12 * bitrate / samplerate + (padding ? 1 : 0)) * 4 : getSamples() / 8 * bitrate / samplerate + (padding ? 1 : 0);
+        }
+
+        /**
+         * Returns the frame of a header or null if it is not a valid frame header.
+         * @param header first four bytes of the frame
+         * @return
+         */
+        private static Frame of(int header) {
+            if ((header & 0xFFE00000) != 0xFFE00000) return null;
+            int version = (header >> 19) & 3;
+            int layer = 4 - ((header >> 17) & 3);
+            int bitrate = (header >> 12) & 15;
+            int samplerate = (header >> 10) & 3;
+            // reserved values and free format
+            if ((version == 1) || (layer == 4) || (bitrate == 0) || (bitrate == 15) || (samplerate == 3)) return null;
+            boolean mpeg1 = (version == 3);
+            int kbits = BITRATES[mpeg1 ? layer - 1 : (layer == 1) ? 3 : 4][bitrate];
+            int rate = SAMPLERATES[samplerate] >> (mpeg1 ? 0 : (version == 2) ? 1 : 2);
+            return new Frame(mpeg1, layer, kbits * 1000, rate, ((header >> 9) & 1) != 0, ((header >> 6) & 3) == 3);
+        }
+
+        private int getSamples() {
+            if (layer == 1) return 384;
+            return ((layer == 3) && !mpeg1) ? 576 : 1152;
+        }
+
+        // a false sync is unlikely to be followed by a matching frame
+        private boolean matches(Frame next) {
+            return (next != null) && (next.mpeg1 == mpeg1) && (next.layer == layer) && (next.samplerate == samplerate);
+        }
+
+        private long toMillis(long frames) {
+            return frames * getSamples() * 1000 / samplerate;
+        }
+    }
+
+    private Mp3Header() {}
+
+    /**
+     * Reads the duration of a mp3 file.
+     * @param file mp3 file
+     * @return duration in milliseconds or -1 if no audio frame has been found
+     * @throws IOException
+     */
+    public static long readDuration(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = skipTags(channel);
+            long end = size;
+            if ((size >= 128) && text(read(channel, size - 128, 3), 0, 3).equals("TAG")) end -= 128;
+
+            for (long pos = start; (pos < end) && (pos < start + MAXSEARCH); pos += CHUNK - 3) {
+                ByteBuffer chunk = read(channel, pos, CHUNK);
+                for (int i = 0; i + 4 <= chunk.limit(); i++) {
+                    Frame frame = Frame.of(chunk.getInt(i));
+                    if (frame == null) continue;
+                    long offset = pos + i;
+                    if ((offset + frame.length + 4 <= end) && !frame.matches(Frame.of(read(channel, offset + frame.length, 4).getInt(0)))) continue;
+                    long frames = readFrames(channel, offset, frame);
+                    if (frames >= 0) return frame.toMillis(frames);
+                    return (end - offset) * 8000 / frame.bitrate;
+                }
+                if (chunk.limit() < CHUNK) break;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the position after the ID3v2 tags at the start of the file.
+     */
+    private static long skipTags(FileChannel channel) throws IOException {
+        long pos = 0;
+        while (true) {
+            ByteBuffer header = read(channel, pos, 10);
+            if ((header.limit() < 10) || !text(header, 0, 3).equals("ID3")) return pos;
+            int size = 0;
+            // syncsafe integer, 7 bits per byte
+            for (int i = 6; i < 10; i++) size = (size << 7) | (header.get(i) & 0x7F);
+            boolean footer = (header.get(5) & 0x10) != 0;
+            pos += 10 + size + (footer ? 10 : 0);
+        }
+    }
+
+    /**
+     * Returns the number of frames of a Xing/Info or VBRI header in the first frame.
+     * @return number of frames or -1 if there is no such header
+     */
+    private static long readFrames(FileChannel channel, long offset, Frame frame) throws IOException {
+        ByteBuffer data = read(channel, offset, 64);
+        // Xing header follows the side information
+        int xing = 4 + (frame.mpeg1 ? (frame.mono ? 17 : 32) : (frame.mono ? 9 : 17));
+        if (data.limit() >= xing + 12) {
+            String id = text(data, xing, 4);
+            if ((id.equals("Xing") || id.equals("Info")) && ((data.getInt(xing + 4) & 1) != 0)) return data.getInt(xing + 8) & 0xFFFFFFFFL;
+        }
+        // VBRI header is at a fix position
+        if ((data.limit() >= 36 + 18) && text(data, 36, 4).equals("VBRI")) return data.getInt(36 + 14) & 0xFFFFFFFFL;
+        return -1;
+    }
+
+    static String text(ByteBuffer data, int pos, int length) {
+        if (data.limit() < pos + length) return "";
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = data.get(pos + i);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    static ByteBuffer read(FileChannel channel, long pos, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position()) < 0) break;
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -7,9 +7,15 @@ package oanavodo.songbase;
 public class Options {
 
     public static enum Check { NO, YES, ONLY };
+    public static enum Locked { SKIP, WAIT, FAIL };
 
     private Check check = Check.YES;
     private boolean dryrun = false;
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private boolean sync = false;
+    private boolean virtual = false;
+    private boolean tags = false;
+    private Locked locked = Locked.FAIL;
 
     public Check getCheck() {
         return check;
@@ -26,4 +32,44 @@ public class Options {
     public void setDryrun(boolean dryrun) {
         this.dryrun = dryrun;
     }
+
+    public int getJobs() {
+        return jobs;
+    }
+
+    public void setJobs(int jobs) {
+        this.jobs = jobs;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public void setVirtual(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    public boolean isTags() {
+        return tags;
+    }
+
+    public void setTags(boolean tags) {
+        this.tags = tags;
+    }
+
+    public Locked getLocked() {
+        return locked;
+    }
+
+    public void setLocked(Locked locked) {
+        this.locked = locked;
+    }
 }
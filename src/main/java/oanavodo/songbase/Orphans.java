@@ -0,0 +1,122 @@
+package oanavodo.songbase;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import oanavodo.songbase.playlist.PlaylistList;
+
+/**
+ * Finds song files which are not referenced by any playlist.
+ * All referenced songs are collected in a hash set first, so each song file found in the folder tree
+ * is checked with a single lookup. The unreferenced songs can be published as they are found, so they are written
+ * as playlist while the folder tree is still walked.
+ * @author Reiner
+ */
+public class Orphans {
+
+    private final SongBaseContext context;
+    private final Path base;
+    private final Set<Path> referenced;
+    private final List<Path> unnamed = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Creates a finder for the music folder tree.
+     * @param context context of the operation
+     * @param base base folder of the music tree
+     * @param factory playlists which reference the songs
+     */
+    public Orphans(SongBaseContext context, Path base, PlaylistList factory) {
+        this.context = context;
+        this.base = base.toAbsolutePath().normalize();
+        this.referenced = factory.stream()
+            .flatMap(list -> list.entries())
+            .map(entry -> entry.getPath().toAbsolutePath().normalize())
+            .collect(Collectors.toSet());
+    }
+
+    /**
+     * Returns the number of different songs referenced by the playlists.
+     * @return
+     */
+    public int getReferenced() {
+        return referenced.size();
+    }
+
+    /**
+     * Returns the unreferenced song files which could not be returned as song because interpret and title
+     * are not detectable from the file name. Only valid after {@link #find()} or {@link #publish(Flow.Subscriber)}.
+     * @return
+     */
+    public List<Path> getUnnamed() {
+        return unnamed;
+    }
+
+    /**
+     * Finds all unreferenced songs.
+     * @return songs sorted by path
+     */
+    public List<Song> find() {
+        List<Song> orphans = new ArrayList<>();
+        walk(folder -> orphans.addAll(folder));
+        orphans.sort(Comparator.naturalOrder());
+        return orphans;
+    }
+
+    /**
+     * Publishes all unreferenced songs to a subscriber as they are found.
+     * Folders are walked in parallel, so the songs are published folder by folder in no particular order.
+     * The subscriber is completed exceptionally if the walk fails.
+     * @param subscriber receiver of the songs
+     * @return number of published songs
+     */
+    public int publish(Flow.Subscriber<? super Song> subscriber) {
+        // delivered by the pool of the jobs option instead of the common pool, a full buffer is waited for as managed block
+        SubmissionPublisher<Song> publisher = new SubmissionPublisher<>(context.getJobs().getPool(), Flow.defaultBufferSize());
+        publisher.subscribe(subscriber);
+        AtomicInteger published = new AtomicInteger(0);
+        try {
+            walk(folder -> {
+                folder.forEach(song -> publisher.submit(song));
+                published.addAndGet(folder.size());
+            });
+        }
+        catch (RuntimeException ex) {
+            publisher.closeExceptionally(ex);
+            throw ex;
+        }
+        publisher.close();
+        return published.get();
+    }
+
+    // the unreferenced songs of each folder are handed over by one thread at a time
+    private void walk(Consumer<List<Song>> found) {
+        unnamed.clear();
+        SongTree.walk(context, base, files -> {
+            List<Song> orphans = new ArrayList<>();
+            files.stream()
+                .map(file -> file.getPath())
+                .filter(path -> !referenced.contains(path))
+                .forEach(path -> {
+                    try {
+                        orphans.add(new Song(context, path, false));
+                    }
+                    catch (RuntimeException ex) {
+                        unnamed.add(path);
+                    }
+                });
+            if (orphans.isEmpty()) return;
+            synchronized (this) {
+                found.accept(orphans);
+            }
+        });
+        unnamed.sort(Comparator.naturalOrder());
+    }
+}
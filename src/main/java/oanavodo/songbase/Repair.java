@@ -0,0 +1,110 @@
+package oanavodo.songbase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import oanavodo.songbase.playlist.PlaylistList;
+
+/**
+ * Repairs playlist entries of songs which have been moved or renamed outside of songbase.
+ * The music folder tree is scanned once and indexed by file name and by case folded file name.
+ * A missing song is replaced by the song file with the same name if there is exactly one. Otherwise
+ * the song file with the same case folded name is taken if there is exactly one.
+ * @author Reiner
+ */
+public class Repair {
+
+    private final SongBaseContext context;
+    private final Path base;
+    private final Set<Path> existing = new HashSet<>();
+    private final Map<String, List<Path>> byname = new HashMap<>();
+    private final Map<String, List<Path>> byfolded = new HashMap<>();
+    private int repaired = 0;
+    private int ambiguous = 0;
+    private int unresolved = 0;
+
+    /**
+     * Indexes all songs of a music folder tree.
+     * @param context context of the operation
+     * @param base base folder of the music tree
+     */
+    public Repair(SongBaseContext context, Path base) {
+        this.context = context;
+        this.base = base.toAbsolutePath().normalize();
+        SongTree.scan(context, this.base).forEach(file -> {
+            Path path = file.getPath();
+            existing.add(path);
+            String name = path.getFileName().toString();
+            byname.computeIfAbsent(name, key -> new ArrayList<>()).add(path);
+            byfolded.computeIfAbsent(fold(name), key -> new ArrayList<>()).add(path);
+        });
+    }
+
+    /**
+     * Returns the key used for case insensitive lookup of a file name.
+     * @param name file name
+     * @return
+     */
+    static String fold(String name) {
+        return Normalizer.normalize(name, Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Replaces all missing songs in the playlists by their new location.
+     * The playlists are only changed in memory and have to be updated afterwards.
+     * @param factory playlists to be repaired
+     */
+    public void repair(PlaylistList factory) {
+        Set<Path> songs = factory.stream()
+            .flatMap(list -> list.entries())
+            .map(entry -> entry.getPath().toAbsolutePath().normalize())
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+        for (Path song : songs) {
+            // songs outside of the tree are not indexed and have to be checked one by one
+            boolean found = song.startsWith(base) ? existing.contains(song) : Files.isRegularFile(song);
+            if (found) continue;
+            String name = song.getFileName().toString();
+            List<Path> candidates = byname.getOrDefault(name, List.of());
+            if (candidates.isEmpty()) candidates = byfolded.getOrDefault(fold(name), List.of());
+            if (candidates.size() == 1) {
+                Path target = candidates.get(0);
+                context.getLog().format("SONG: Repair %s -> %s\n", relative(song), relative(target));
+                factory.move(new Song(context, song, false), new Song(context, target, false));
+                repaired++;
+            }
+            else if (candidates.size() > 1) {
+                context.getLog().format("SONG: Ambiguous %s: %s\n", relative(song), candidates.stream().map(path -> relative(path)).collect(Collectors.joining(", ")));
+                ambiguous++;
+            }
+            else {
+                context.getLog().format("SONG: Not found %s\n", relative(song));
+                unresolved++;
+            }
+        }
+    }
+
+    public int getRepaired() {
+        return repaired;
+    }
+
+    public int getAmbiguous() {
+        return ambiguous;
+    }
+
+    public int getUnresolved() {
+        return unresolved;
+    }
+
+    private String relative(Path path) {
+        return path.startsWith(base) ? base.relativize(path).toString().replace("\\", "/") : path.toString();
+    }
+}
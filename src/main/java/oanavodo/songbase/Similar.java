@@ -0,0 +1,231 @@
+package oanavodo.songbase;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Finds songs with similar interpret and title.
+ * Interpret and title are normalized (case, accents, leading articles, punctuation). Only songs sharing the
+ * normalized interpret, the normalized title or the leading trigrams of both are compared with each other.
+ * The pairs are scored by the edit distance of normalized interpret and title.
+ * @author Reiner
+ */
+public class Similar {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NOALNUM = Pattern.compile("[^\\p{Alnum}]+");
+    private static final Pattern ARTICLES = Pattern.compile("^(the|a|an|die|der|das|le|la|les|el|los) ");
+
+    /**
+     * Largest block which is compared pair by pair. Larger blocks (e.g. title 'intro') are split by a longer prefix
+     * of normalized interpret and title.
+     */
+    private static final int MAXBLOCK = 2000;
+
+    /**
+     * A pair of similar songs.
+     */
+    public static class Pair {
+        private final Path first;
+        private final Path second;
+        private final double score;
+
+        private Pair(Path first, Path second, double score) {
+            this.first = first;
+            this.second = second;
+            this.score = score;
+        }
+
+        public Path getFirst() {
+            return first;
+        }
+
+        public Path getSecond() {
+            return second;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    private static class Key {
+        private final Path path;
+        private final String interpret;
+        private final String title;
+        private final String full;
+        private final String signature;
+
+        private Key(Song song) {
+            this.path = song.getPath();
+            this.interpret = normalize(song.getInterpret());
+            this.title = normalize(song.getTitle());
+            this.full = interpret + " " + title;
+            this.signature = prefix(interpret) + "|" + prefix(title);
+        }
+
+        private static String prefix(String text) {
+            return text.substring(0, Math.min(3, text.length()));
+        }
+    }
+
+    private final Path base;
+    private final List<Key> keys = new ArrayList<>();
+    private int skipped = 0;
+    private int oversized = 0;
+
+    /**
+     * Collects all songs of a music folder tree.
+     * Files without detectable interpret and title are ignored.
+     * @param context context of the operation
+     * @param base base folder of the music tree
+     */
+    public Similar(SongBaseContext context, Path base) {
+        this.base = base.toAbsolutePath().normalize();
+        SongTree.scan(context, this.base).forEach(file -> {
+            try {
+                keys.add(new Key(new Song(context, file.getPath(), false)));
+            }
+            catch (RuntimeException ex) {
+                skipped++;
+            }
+        });
+    }
+
+    /**
+     * Returns the number of song files which have been ignored.
+     * @return
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Returns the number of blocks which have not been compared by the last search, because they are too large and
+     * cannot be split further (songs with equal interpret and title in many folders).
+     * @return
+     */
+    public int getOversized() {
+        return oversized;
+    }
+
+    /**
+     * Normalizes an interpret or title for comparison.
+     * @param text interpret or title
+     * @return
+     */
+    public static String normalize(String text) {
+        String norm = Normalizer.normalize(text, Normalizer.Form.NFD);
+        norm = MARKS.matcher(norm).replaceAll("");
+        norm = norm.toLowerCase(Locale.ROOT).replace("&", " and ");
+        norm = NOALNUM.matcher(norm).replaceAll(" ").trim();
+        return ARTICLES.matcher(norm).replaceFirst("");
+    }
+
+    /**
+     * Finds all pairs of similar songs.
+     * @param minimum minimal similarity between 0 and 1
+     * @return pairs sorted by descending similarity
+     */
+    public List<Pair> find(double minimum) {
+        Map<String, List<Key>> byinterpret = new HashMap<>();
+        Map<String, List<Key>> bytitle = new HashMap<>();
+        Map<String, List<Key>> bysignature = new HashMap<>();
+        keys.forEach(key -> {
+            byinterpret.computeIfAbsent(key.interpret, k -> new ArrayList<>()).add(key);
+            bytitle.computeIfAbsent(key.title, k -> new ArrayList<>()).add(key);
+            bysignature.computeIfAbsent(key.signature, k -> new ArrayList<>()).add(key);
+        });
+        Set<String> seen = new HashSet<>();
+        List<Pair> pairs = new ArrayList<>();
+        oversized = 0;
+        compare(byinterpret.values(), minimum, seen, pairs);
+        compare(bytitle.values(), minimum, seen, pairs);
+        compare(bysignature.values(), minimum, seen, pairs);
+        pairs.sort(Comparator.comparing((Pair pair) -> -pair.score).thenComparing(pair -> pair.first).thenComparing(pair -> pair.second));
+        return pairs;
+    }
+
+    /**
+     * Prints pairs of similar songs as tab separated lines: similarity, first song, second song.
+     * @param pairs pairs of similar songs
+     * @param out where the pairs are written to
+     */
+    public void report(List<Pair> pairs, PrintStream out) {
+        pairs.forEach(pair -> out.format(Locale.ROOT, "%.2f\t%s\t%s\n", pair.score, relative(pair.first), relative(pair.second)));
+        out.flush();
+    }
+
+    private void compare(Iterable<List<Key>> blocks, double minimum, Set<String> seen, List<Pair> pairs) {
+        for (List<Key> block : blocks) compare(block, 1, minimum, seen, pairs);
+    }
+
+    private void compare(List<Key> block, int prefix, double minimum, Set<String> seen, List<Pair> pairs) {
+        if (block.size() < 2) return;
+        if (block.size() > MAXBLOCK) {
+            // songs which differ within the prefix are not compared any more, so the prefix grows by one character only
+            if (block.stream().allMatch(key -> key.full.length() < prefix)) {
+                oversized++;
+                return;
+            }
+            Map<String, List<Key>> parts = new HashMap<>();
+            block.forEach(key -> parts.computeIfAbsent(key.full.substring(0, Math.min(prefix, key.full.length())), k -> new ArrayList<>()).add(key));
+            parts.values().forEach(part -> compare(part, prefix + 1, minimum, seen, pairs));
+            return;
+        }
+        for (int i = 0; i < block.size(); i++) {
+            Key a = block.get(i);
+            for (int j = i + 1; j < block.size(); j++) {
+                Key b = block.get(j);
+                if (a.path.equals(b.path)) continue;
+                int longest = Math.max(a.full.length(), b.full.length());
+                int allowed = (int)Math.floor((1.0 - minimum) * longest);
+                int distance = distance(a.full, b.full, allowed);
+                if (distance > allowed) continue;
+                Key first = (a.path.compareTo(b.path) < 0) ? a : b;
+                Key second = (first == a) ? b : a;
+                if (!seen.add(first.path.toString() + "\n" + second.path.toString())) continue;
+                pairs.add(new Pair(first.path, second.path, (longest == 0) ? 1.0 : 1.0 - ((double)distance / longest)));
+            }
+        }
+    }
+
+    /**
+     * Levenshtein distance which stops as soon as the distance exceeds a limit.
+     * @return distance or limit + 1 if larger than limit
+     */
+    static int distance(String a, String b, int limit) {
+        if (Math.abs(a.length() - b.length()) > limit) return limit + 1;
+        int[] prev = new int[b.length() + 1];
+        int[] curr = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) prev[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            curr[0] = i;
+            int best = curr[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+                curr[j] = Math.min(Math.min(curr[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                if (curr[j] < best) best = curr[j];
+            }
+            if (best > limit) return limit + 1;
+            int[] swap = prev;
+            prev = curr;
+            curr = swap;
+        }
+        return prev[b.length()];
+    }
+
+    private String relative(Path path) {
+        return base.relativize(path).toString().replace("\\", "/");
+    }
+}
@@ -7,28 +7,44 @@ import oanavodo.songbase.Options.Check;
 
 /**
  * Represents a song with its path, interpret and title.
- * Currently interpret and title are extracted from filename with a fix format.
+ * Interpret and title are extracted from filename with a fix format: &lt;interpret&gt;--&lt;title&gt;.&lt;ext&gt;.
+ * If the context has a metadata cache (option tags) they are taken from the ID3 tag of the song file if it has one.
  * @author Reiner
  */
 public class Song implements Comparable<Song> {
 
-    protected static Options options = new Options();
-
-    public static void setOptions(Options options) {
-        Song.options = options;
-    }
-
+    private final SongBaseContext context;
     private Path path;
     private Path name;
     private String interpret;
     private String title;
-    private boolean exists;
 
-    protected Song(Path path) {
-        this.exists = Files.isRegularFile(path);
-        if (!exists && !(options.isDryrun() || (options.getCheck() == Check.NO))) throw new RuntimeException("Song not found: " + path.toAbsolutePath().toString());
+    protected Song(SongBaseContext context, Path path) {
+        this(context, path, true);
+    }
+
+    /**
+     * Creates a song.
+     * The song file is only checked for existence with option check YES.
+     * With check ONLY existence is checked afterwards for all songs at once (see {@link SongCheck}).
+     * @param context context of the operation
+     * @param path song file
+     * @param check false if a missing song file is accepted regardless of options
+     */
+    protected Song(SongBaseContext context, Path path, boolean check) {
+        Options options = context.getOptions();
+        boolean required = check && !options.isDryrun() && (options.getCheck() == Check.YES);
+        if (required && !Files.isRegularFile(path)) throw new RuntimeException("Song not found: " + path.toAbsolutePath().toString());
+        this.context = context;
         this.path = path.normalize();
         name = path.getFileName();
+        MetadataCache metadata = context.getMetadata();
+        Id3Tag tag = (metadata != null) ? metadata.getTag(this.path) : null;
+        if (tag != null) {
+            interpret = tag.getInterpret();
+            title = tag.getTitle();
+            return;
+        }
         interpret = name.toString();
         int end = interpret.lastIndexOf(".");
         int pos = interpret.indexOf("--");
@@ -39,11 +55,15 @@ public class Song implements Comparable<Song> {
     }
 
     public Song(Song other) {
+        this.context = other.context;
         this.path = other.path;
         this.name = other.name;
         this.interpret = other.interpret;
         this.title = other.title;
-        this.exists = other.exists;
+    }
+
+    public SongBaseContext getContext() {
+        return context;
     }
 
     public Path getPath() {
@@ -64,7 +84,7 @@ public class Song implements Comparable<Song> {
 
     public Song move(Path newpath, boolean delete) {
         Path newfile = moveIntern(newpath, delete);
-        return (newfile != null) ? new Song(newfile) : null;
+        return (newfile != null) ? new Song(context, newfile) : null;
     }
 
     protected Path moveIntern(Path newpath, boolean delete) {
@@ -78,17 +98,18 @@ public class Song implements Comparable<Song> {
         oldfolder = oldfolder.substring(diff);
         newfolder = newfolder.substring(diff);
 
+        boolean dryrun = context.getOptions().isDryrun();
         try {
-            System.err.format("SONG: Moving %s -> %s, %s\n", oldfolder, newfolder, getName());
-            if (!options.isDryrun()) Files.move(path, newfile);
-            if (options.isDryrun() && Files.exists(newfile)) throw new FileAlreadyExistsException(newfile.toString());
+            context.getLog().format("SONG: Moving %s -> %s, %s\n", oldfolder, newfolder, getName());
+            if (!dryrun) new Transfer(context).move(path, newfile);
+            if (dryrun && Files.exists(newfile)) throw new FileAlreadyExistsException(newfile.toString());
         }
         catch (FileAlreadyExistsException ex) {
-            System.err.format("SONG: Exists %s, %s\n", newfolder, getName());
+            context.getLog().format("SONG: Exists %s, %s\n", newfolder, getName());
             if (delete) {
-                System.err.format("SONG: Delete %s, %s\n", oldfolder, getName());
+                context.getLog().format("SONG: Delete %s, %s\n", oldfolder, getName());
                 try {
-                    if (!options.isDryrun()) Files.delete(path);
+                    if (!dryrun) Files.delete(path);
                 }
                 catch (Exception ex2) {
                     throw new RuntimeException(ex2.getMessage(), ex2.getCause());
@@ -7,15 +7,20 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import oanavodo.songbase.Options.Check;
 import oanavodo.songbase.playlist.Playlist;
+import oanavodo.songbase.playlist.PlaylistIO;
 import oanavodo.songbase.playlist.PlaylistList;
+import oanavodo.songbase.playlist.PlaylistSubscriber;
 
 public class SongBase {
 
@@ -24,7 +29,8 @@ public class SongBase {
             "usage: " + SongBase.class.getSimpleName() + " [<options>] [<list> ...]",
             "Manage playlists if songs are moved or have to be added or removed.",
             "<list> Path to a playlist or '-' if playlist should be read from standard input. '-' can only be specified once. Otherwise some",
-            "       operations allow to specify more than one playlist. Currently m3u (ISO8859-1) and m3u8 (UTF-8) playlist types are supported.",
+            "       operations allow to specify more than one playlist. Currently m3u (ISO8859-1), m3u8 (UTF-8), sbpl (binary, fast loading),",
+            "       pls, xspf and jsonl (JSON lines) playlist types are supported.",
             "Options:",
             "--base <dir>  Base folder for searching playlists. If playlists <list> are specified it defaults to the folder of the first playlist.",
             "              If '-' is specified it defaults to the current working directory.",
@@ -36,7 +42,22 @@ public class SongBase {
             "              the destination folder.",
             "--rmsource    During map operation: delete a song in the source folder if it already exists in destination folder.",
             "--sorted      All playlists which has to be written are sorted before writing them. This also applies to standard output writes.",
+            "--stream      During add and remove operations without playlist arguments: the playlists found in the base folder are",
+            "              changed one after the other (up to '--jobs' at the same time) instead of reading all of them first.",
+            "--sync        Written playlists are forced to the storage device. Playlists written together are forced together.",
+            "--locked <policy> What to do with a playlist locked by another songbase run: 'fail' (default), 'wait' until it is",
+            "              unlocked or 'skip' it. With 'skip' also playlists changed by another program since reading are not written.",
+            "              Only with '--stream' a playlist is locked before reading, otherwise a playlist written by the other run",
+            "              while waiting fails like with 'fail'.",
+            "--tags        Interpret and title of songs are read from their ID3 tags instead of their file names. The file name is only",
+            "              used for songs without a tag. Tags are remembered in the file '.songbase-meta' in the base folder.",
             "--type <type> Playlist type when reading from standard input and writing to standard output (defaults to m3u).",
+            "--jobs <n>    Maximal number of parallel operations (defaults to number of processors). With 1 all is done one after the other.",
+            "--virtual     Run parallel file operations in virtual threads (Java 21 or later). '--jobs' limits the operations running at",
+            "              the same time and can be set much higher (e.g. 200) for network shares with high latency.",
+            "--plan <file> During map operation: write the move plan to <file> ('-' for standard output). If option '--dryrun' is used",
+            "              the plan is written to standard output by default.",
+            "--report <format> Report format of check operation: 'text' (default, to standard error) or 'json' (to standard output).",
             "--help        Display this help.",
             "Operations:",
             "If no operation is specified but the '--out' option with one playlist the playlist format can be converted.",
@@ -45,8 +66,24 @@ public class SongBase {
             "                    Default folder for <b> is 'Rock'.",
             "                    A special behavior in this operation may be switched on with option '--interpret': if there is a folder equal",
             "                    to the name of the interpret then the song is moved to this folder instead of <b>.",
+            "                    All moves are planned before any song is moved. The plan is executed in parallel.",
+            "                    Songs moved to another file system are copied, verified by checksum and deleted afterwards.",
+            "                    All moves and playlist writes are recorded in a journal file in the base folder which is removed",
+            "                    after success.",
+            "--apply <plan>      Execute a move plan which has been written by a map operation with option '--plan' before.",
+            "                    The playlist of the plan and all playlists found in the base folder are updated.",
+            "                    A playlist read from stdin by the map operation is read from stdin again.",
+            "--recover [<mode>]  Recover from an interrupted map or apply operation with help of the journal in the base folder.",
+            "                    <mode> 'replay' (default) executes the remaining moves and updates all playlists.",
+            "                    <mode> 'rollback' moves already moved songs back and updates all playlists.",
             "--check             Only check if the songs of a playlist exists. If no playlist arguments are supplied all playlists found in the",
             "                    base folder (defaults to working directory) are checked. Otherwise only the supplied playlist[s] are checked.",
+            "                    Each missing song is reported once together with all playlists referencing it. Results are remembered",
+            "                    in the file '.songbase-check' in the base folder. Only folders changed since are checked again.",
+            "--durations         Read the durations of the songs of all playlists found in the base folder or of the playlists supplied as",
+            "                    arguments from the mp3 headers and write them as extended info (#EXTINF) of entries without a duration.",
+            "                    The total duration of each playlist is reported. Durations are remembered in the file '.songbase-meta'",
+            "                    in the base folder. Only songs changed since (size or modification time) are read again.",
             "--sort              Sorts all playlists supplied as arguments. If solely '-' is specified standard input is sorted and written",
             "                    to standard output. If option '--out <file>' is specified the output is written to the specified file.",
             "--shuffle [<gap>]   Shuffles all playlists supplied as arguments. If solely '-' is specified standard input is shuffled and written",
@@ -66,36 +103,51 @@ public class SongBase {
             "                    for <list2> instead of a playlist file. In this case this solely song is added.",
             "                    If option '--out <file>' is specified the output is written to the specified file. If no playlist is supplied as",
             "                    argument the songs from <list2> are removed from all playlists found in the base folder.",
+            "--duplicates [<mode>] Search byte identical songs in the base folder tree. Each group of copies is written to standard",
+            "                    output together with the playlists referencing each copy. The copy marked with '*' is referenced by",
+            "                    most playlists. <mode> 'report' (default) only reports. <mode> 'merge' changes all playlists found in the",
+            "                    base folder to reference only the marked copy. The other copies are not deleted.",
+            "--similar [<min>]   Search songs in the base folder tree with similar interpret and title. Case, accents, leading articles",
+            "                    and punctuation are ignored. Pairs with a similarity of at least <min> percent (default: 85) are written",
+            "                    to standard output as tab separated lines: similarity, first song, second song.",
+            "--orphans           Write all songs in the base folder tree which are not referenced by any playlist found in the base folder",
+            "                    as playlist to standard output. If playlist arguments are supplied only these playlists are taken as",
+            "                    references. If option '--out <file>' is specified the output is written to the specified file.",
+            "--repair            Repair entries of songs which have been moved or renamed outside of songbase in all playlists found in the",
+            "                    base folder or in the playlists supplied as arguments. A missing song is replaced by the song in the base",
+            "                    folder tree with the same file name (ignoring case if necessary). Ambiguous names are only reported.",
             "--union             Write content of all playlists supplied as argument to standard output.",
             "--intersect <list2> Write common entries in playlist <list2> and playlist <list> to standard output. Only one playlist argument is allowed."
         ).collect(Collectors.joining("\n"));
     }
 
-    public static enum Operation { NONE, CHECKONLY, MAP, ADD, REMOVE, UNION, INTERSECT, SELECT, SORT, SHUFFLE };
+    public static enum Operation { NONE, CHECKONLY, MAP, APPLY, RECOVER, DUPLICATES, SIMILAR, ORPHANS, REPAIR, DURATIONS, ADD, REMOVE, UNION, INTERSECT, SELECT, SORT, SHUFFLE };
 
-    public static Playlist arg2Playlist(String arg, Path root, String type, String out) {
-        // check output parameter
-        Path outpath = null;
-        if ((out != null) && !out.equals("-")) {
-            try {
-                if (out.isBlank()) throw new InvalidPathException(out, "Empty output path not allowed");
-                outpath = Paths.get(out);
-            }
-            catch (InvalidPathException ex) {
-                throw new RuntimeException("Please supply a valid output playlist path", ex);
-            }
+    private static Path arg2Outpath(String out) {
+        if ((out == null) || out.equals("-")) return null;
+        try {
+            if (out.isBlank()) throw new InvalidPathException(out, "Empty output path not allowed");
+            return Paths.get(out);
+        }
+        catch (InvalidPathException ex) {
+            throw new RuntimeException("Please supply a valid output playlist path", ex);
         }
+    }
+
+    public static Playlist arg2Playlist(SongBaseContext context, String arg, Path root, String type, String out) {
+        // check output parameter
+        Path outpath = arg2Outpath(out);
 
         // empty playlist
         if (arg == null) {
             if (root == null) root = Paths.get("").toAbsolutePath();
-            return (outpath == null) ? Playlist.empty(System.out, root, type) : Playlist.empty(outpath, root);
+            return (outpath == null) ? Playlist.empty(context, System.out, root, type) : Playlist.empty(context, outpath, root);
         }
 
         // playlist from stdin
         if (arg.equals("-")) {
             if (root == null) root = Paths.get("").toAbsolutePath();
-            return (outpath == null) ? Playlist.of(System.in, System.out, root, type) : Playlist.of(System.in, outpath, root, type);
+            return (outpath == null) ? Playlist.of(context, System.in, System.out, root, type) : Playlist.of(context, System.in, outpath, root, type);
         }
 
         // playlist from file
@@ -107,15 +159,59 @@ public class SongBase {
         catch (InvalidPathException ex) {
             throw new RuntimeException("Please supply a valid playlist path", ex);
         }
-        return (out == null) ? Playlist.of(inpath) : (outpath == null) ? Playlist.of(inpath, System.out, type) : Playlist.of(inpath, outpath);
+        return (out == null) ? Playlist.of(context, inpath) : (outpath == null) ? Playlist.of(context, inpath, System.out, type) : Playlist.of(context, inpath, outpath);
+    }
+
+    /**
+     * Returns a subscriber which writes the received songs to the output file or standard output.
+     * @param context context of the operation
+     * @param root base folder of the playlist
+     * @param type playlist type for standard output
+     * @param out output path, '-' or null for standard output
+     * @return
+     */
+    public static PlaylistSubscriber arg2Subscriber(SongBaseContext context, Path root, String type, String out) {
+        Path outpath = arg2Outpath(out);
+        return (outpath == null) ? Playlist.subscriber(context, System.out, root, type) : Playlist.subscriber(context, outpath, root);
+    }
+
+    private static boolean isStreamable(String arg, String out, String type) {
+        if (arg.equals("-") || arg.isBlank() || out.isBlank()) return false;
+        try {
+            Path inpath = Paths.get(arg);
+            if (!Files.isRegularFile(inpath) || !PlaylistIO.isStreaming(PlaylistIO.detectType(inpath))) return false;
+            if (out.equals("-")) return PlaylistIO.isStreaming((type == null) ? PlaylistIO.detectType(inpath) : type);
+            Path outpath = Paths.get(out);
+            if (outpath.toAbsolutePath().normalize().equals(inpath.toAbsolutePath().normalize())) return false;
+            return PlaylistIO.isStreaming(PlaylistIO.detectType(outpath));
+        }
+        catch (InvalidPathException ex) {
+            return false;
+        }
     }
 
-    public static PlaylistList args2Factory(Queue<String> args, Path root, String type, String out) {
-        PlaylistList factory = new PlaylistList(root, false);
+    // base folder of the metadata cache before the playlists are read
+    private static Path metadataBase(Path root, Queue<String> paras) {
+        if (root != null) return root;
+        String first = paras.peek();
+        if ((first != null) && !first.equals("-") && !first.isBlank()) {
+            try {
+                Path parent = Paths.get(first).toAbsolutePath().getParent();
+                if ((parent != null) && Files.isDirectory(parent)) return parent;
+            }
+            catch (InvalidPathException ex) {
+                // reported when the playlist is read
+            }
+        }
+        return Paths.get("").toAbsolutePath();
+    }
+
+    public static PlaylistList args2Factory(SongBaseContext context, Queue<String> args, Path root, String type, String out) {
+        PlaylistList factory = new PlaylistList(context, root, false);
         boolean stdio = false;
         boolean outio = false;
         while (!args.isEmpty()) {
-            Playlist list = arg2Playlist(args.poll(), root, type, out);
+            Playlist list = arg2Playlist(context, args.poll(), root, type, out);
             if (list.isOutio()) {
                 if (outio) throw new RuntimeException("Only one playlist can be specified if '--out' option is used");
                 outio = true;
@@ -129,6 +225,41 @@ public class SongBase {
         return factory;
     }
 
+    private static void writePlan(MovePlan plan, String planout) {
+        if ((planout == null) || planout.equals("-")) {
+            plan.write(System.out);
+            return;
+        }
+        try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(planout)), false, StandardCharsets.UTF_8)) {
+            plan.write(out);
+        }
+        catch (RuntimeException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new RuntimeException("Cannot write move plan: " + planout, ex);
+        }
+    }
+
+    private static void executePlan(MovePlan plan, Playlist that, PlaylistList factory, Options options, boolean sorted) {
+        if (options.isDryrun()) {
+            plan.execute(that, factory, null);
+            that.update(sorted);
+            factory.update(sorted);
+            return;
+        }
+        MoveJournal journal = MoveJournal.create(plan, factory.getBase());
+        try {
+            plan.execute(that, factory, journal);
+            journal.update(that, factory, sorted);
+            if (plan.getFailed() > 0) throw new RuntimeException("Not all songs could be moved, see failed moves");
+            journal.commit();
+        }
+        finally {
+            journal.close();
+        }
+    }
+
     public static void main(String[] args) {
 
         try {
@@ -142,12 +273,18 @@ public class SongBase {
             String from = null;
             Path into = null;
             String out = null;
+            String planout = null;
+            MoveJournal.Mode recovery = MoveJournal.Mode.REPLAY;
+            SongCheck.Format report = SongCheck.Format.TEXT;
+            Duplicates.Mode duplicates = Duplicates.Mode.REPORT;
+            int similarity = 85;
             String type = null;
             int shufflegap = 5;
             String search = "";
             boolean dointerpret = false;
             boolean delete = false;
             boolean sorted = false;
+            boolean streaming = false;
             boolean forceargs = false;
             int i = 0;
             while (i < args.length) {
@@ -178,6 +315,18 @@ public class SongBase {
                 case "--sorted":
                     sorted = true;
                     break;
+                case "--stream":
+                    streaming = true;
+                    break;
+                case "--sync":
+                    options.setSync(true);
+                    break;
+                case "--virtual":
+                    options.setVirtual(true);
+                    break;
+                case "--tags":
+                    options.setTags(true);
+                    break;
                 case "--dryrun":
                     options.setDryrun(true);
                     break;
@@ -210,9 +359,111 @@ public class SongBase {
                 case "--out=":
                     out = value;
                     break;
+                case "--jobs":
+                    if ((i >= args.length) || args[i].startsWith("--") || args[i].isBlank()) throw new RuntimeException("Please supply number of jobs");
+                    value = args[i++];
+                case "--jobs=":
+                    try {
+                        options.setJobs(Integer.parseInt(value, 10));
+                    }
+                    catch (NumberFormatException ex) {
+                        throw new RuntimeException("Please supply a valid number of jobs", ex);
+                    }
+                    if (options.getJobs() < 1) throw new RuntimeException("Number of jobs must be at least 1");
+                    break;
+                case "--plan":
+                    if ((i >= args.length) || args[i].startsWith("--") || args[i].isBlank()) throw new RuntimeException("Please supply plan path");
+                    value = args[i++];
+                case "--plan=":
+                    planout = value;
+                    break;
+                case "--apply":
+                    if ((i >= args.length) || args[i].startsWith("--") || args[i].isBlank()) throw new RuntimeException("Please supply move plan");
+                    value = args[i++];
+                case "--apply=":
+                    try {
+                        if (value.isBlank()) throw new InvalidPathException(value, "Empty path not allowed");
+                        into = Paths.get(value);
+                    }
+                    catch (InvalidPathException ex) {
+                        throw new RuntimeException("Please supply a valid move plan path", ex);
+                    }
+                    command = Operation.APPLY;
+                    break;
+                case "--recover":
+                    if ((i < args.length) && !args[i].startsWith("--") && args[i].matches("(?i)replay|rollback")) {
+                        value = args[i++];
+                    }
+                case "--recover=":
+                    if (!value.isEmpty()) {
+                        try {
+                            recovery = MoveJournal.Mode.valueOf(value.toUpperCase());
+                        }
+                        catch (IllegalArgumentException ex) {
+                            throw new RuntimeException("Invalid recovery mode: " + value);
+                        }
+                    }
+                    command = Operation.RECOVER;
+                    break;
+                case "--locked":
+                    if ((i >= args.length) || args[i].startsWith("--") || args[i].isBlank()) throw new RuntimeException("Please supply lock policy");
+                    value = args[i++];
+                case "--locked=":
+                    try {
+                        options.setLocked(Options.Locked.valueOf(value.toUpperCase()));
+                    }
+                    catch (IllegalArgumentException ex) {
+                        throw new RuntimeException("Invalid lock policy: " + value);
+                    }
+                    break;
+                case "--report":
+                    if ((i >= args.length) || args[i].startsWith("--") || args[i].isBlank()) throw new RuntimeException("Please supply report format");
+                    value = args[i++];
+                case "--report=":
+                    try {
+                        report = SongCheck.Format.valueOf(value.toUpperCase());
+                    }
+                    catch (IllegalArgumentException ex) {
+                        throw new RuntimeException("Invalid report format: " + value);
+                    }
+                    break;
+                case "--duplicates":
+                    if ((i < args.length) && !args[i].startsWith("--") && args[i].matches("(?i)report|merge")) {
+                        value = args[i++];
+                    }
+                case "--duplicates=":
+                    if (!value.isEmpty()) {
+                        try {
+                            duplicates = Duplicates.Mode.valueOf(value.toUpperCase());
+                        }
+                        catch (IllegalArgumentException ex) {
+                            throw new RuntimeException("Invalid duplicates mode: " + value);
+                        }
+                    }
+                    command = Operation.DUPLICATES;
+                    break;
+                case "--similar":
+                    if ((i < args.length) && !args[i].startsWith("--") && args[i].matches("\\d+")) {
+                        value = args[i++];
+                    }
+                case "--similar=":
+                    try { similarity = Integer.parseInt(value, 10); }
+                    catch(NumberFormatException ex) {}
+                    if ((similarity < 0) || (similarity > 100)) throw new RuntimeException("Similarity must be between 0 and 100: " + similarity);
+                    command = Operation.SIMILAR;
+                    break;
+                case "--orphans":
+                    command = Operation.ORPHANS;
+                    break;
+                case "--repair":
+                    command = Operation.REPAIR;
+                    break;
                 case "--check":
                     command = Operation.CHECKONLY;
                     break;
+                case "--durations":
+                    command = Operation.DURATIONS;
+                    break;
                 case "--map":
                     if ((i < args.length) && !args[i].startsWith("--")) {
                         value = args[i++];
@@ -268,167 +519,308 @@ public class SongBase {
                 }
             }
 
-            PlaylistList.setOptions(options);
-            Playlist.setOptions(options);
-            Song.setOptions(options);
-
-            switch(command) {
-            case CHECKONLY: {
-                options.setCheck(Check.ONLY);
-                PlaylistList factory;
-                if (!paras.isEmpty()) {
-                    factory = args2Factory(paras, root, type, null);
+            // songs of an interrupted run are not at their listed location
+            if (command == Operation.RECOVER) options.setCheck(Check.NO);
+            // playlists are only needed for their references
+            if ((command == Operation.DUPLICATES) || (command == Operation.ORPHANS)) options.setCheck(Check.NO);
+            // missing songs are what repair is looking for
+            if (command == Operation.REPAIR) options.setCheck(Check.NO);
+            SongBaseContext context = new SongBaseContext(options);
+            if (options.isTags()) context.setMetadata(new MetadataCache(context, metadataBase(root, paras)));
+            try {
+                switch(command) {
+                case CHECKONLY: {
+                    options.setCheck(Check.ONLY);
+                    PlaylistList factory;
+                    if (!paras.isEmpty()) {
+                        factory = args2Factory(context, paras, root, type, null);
+                    }
+                    else {
+                        if (root == null) root = Paths.get("").toAbsolutePath();
+                        factory = new PlaylistList(context, root, true);
+                    }
+                    if (root == null) root = factory.getBase();
+                    SongCheck.Report result = new SongCheck(context, root).check(factory.stream());
+                    result.print(report, (report == SongCheck.Format.JSON) ? System.out : System.err);
+                    break;
                 }
-                else {
-                    if (root == null) root = Paths.get("").toAbsolutePath();
-                    factory = new PlaylistList(root, true);
+                case SELECT: {
+                    if (paras.isEmpty()) throw new RuntimeException("Please supply input playlist[s] or specify - for stdin");
+                    PlaylistList factory = args2Factory(context, paras, root, type, null);
+                    if (root == null) root = factory.getBase();
+                    final String fsearch = search;
+                    Playlist result = arg2Playlist(context, null, root, type, out);
+                    result.add(
+                        factory.stream()
+                            .peek(list -> System.err.format("SONGBASE: Filter for '%s', %s\n", fsearch, list.getName()))
+                            .flatMap(list -> list.select(fsearch))
+                    );
+                    result.write(sorted);
+                    break;
                 }
-                break;
-            }
-            case SELECT: {
-                if (paras.isEmpty()) throw new RuntimeException("Please supply input playlist[s] or specify - for stdin");
-                PlaylistList factory = args2Factory(paras, root, type, null);
-                if (root == null) root = factory.getBase();
-                final String fsearch = search;
-                Playlist result = arg2Playlist(null, root, type, out);
-                result.add(
+                case SORT: {
+                    if (paras.isEmpty()) throw new RuntimeException("Please supply input playlist[s] or specify - for stdin");
+                    PlaylistList factory = args2Factory(context, paras, root, type, out);
                     factory.stream()
-                        .peek(list -> System.err.format("SONGBASE: Filter for '%s', %s\n", fsearch, list.getName()))
-                        .flatMap(list -> list.select(fsearch))
-                );
-                result.write(sorted);
-                break;
-            }
-            case SORT: {
-                if (paras.isEmpty()) throw new RuntimeException("Please supply input playlist[s] or specify - for stdin");
-                PlaylistList factory = args2Factory(paras, root, type, out);
-                factory.stream()
-                    .peek(list -> System.err.format("SONGBASE: Sort %s\n", list.getName()))
-                    .forEach(list -> list.sort());
-                factory.update(false);
-                break;
-            }
-            case SHUFFLE: {
-                if (paras.isEmpty()) throw new RuntimeException("Please supply input playlist[s] or specify - for stdin");
-                PlaylistList factory = args2Factory(paras, root, type, out);
-                final int gap = shufflegap;
-                factory.stream()
-                    .peek(list -> System.err.format("SONGBASE: Shuffle %s\n", list.getName()))
-                    .forEach(list -> list.shuffle(gap));
-                factory.update(false);
-                break;
-            }
-            case ADD: {
-                PlaylistList factory;
-                if (!paras.isEmpty()) {
-                    factory = args2Factory(paras, root, type, out);
-                }
-                else {
-                    if (root == null) root = Paths.get("").toAbsolutePath();
-                    factory = new PlaylistList(root, true);
+                        .peek(list -> System.err.format("SONGBASE: Sort %s\n", list.getName()))
+                        .forEach(list -> list.sort());
+                    factory.update(false);
+                    break;
                 }
-                Playlist that = Playlist.ofPlaylistOrSong(into);
-                factory.removePlaylist(that);
-                factory.stream()
-                    .peek(list -> System.err.format("SONGBASE: Add %s to %s\n", that.getName(), list.getName()))
-                    .forEach(list -> list.add(that.entries()));
-                factory.update(sorted);
-                break;
-            }
-            case REMOVE: {
-                PlaylistList factory;
-                if (!paras.isEmpty()) {
-                    factory = args2Factory(paras, root, type, out);
+                case SHUFFLE: {
+                    if (paras.isEmpty()) throw new RuntimeException("Please supply input playlist[s] or specify - for stdin");
+                    PlaylistList factory = args2Factory(context, paras, root, type, out);
+                    final int gap = shufflegap;
+                    factory.stream()
+                        .peek(list -> System.err.format("SONGBASE: Shuffle %s\n", list.getName()))
+                        .forEach(list -> list.shuffle(gap));
+                    factory.update(false);
+                    break;
                 }
-                else {
-                    if (root == null) root = Paths.get("").toAbsolutePath();
-                    factory = new PlaylistList(root, true);
+                case ADD: {
+                    if (paras.isEmpty() && streaming) {
+                        if (root == null) root = Paths.get("").toAbsolutePath();
+                        Playlist that = Playlist.ofPlaylistOrSong(context, into);
+                        Path skip = (that.getPath() != null) ? that.getPath().toAbsolutePath().normalize() : null;
+                        PlaylistList.forEach(context, root, path -> !path.toAbsolutePath().normalize().equals(skip), list -> {
+                            System.err.format("SONGBASE: Add %s to %s\n", that.getName(), list.getName());
+                            list.add(that.entries());
+                        }, sorted);
+                        break;
+                    }
+                    PlaylistList factory;
+                    if (!paras.isEmpty()) {
+                        factory = args2Factory(context, paras, root, type, out);
+                    }
+                    else {
+                        if (root == null) root = Paths.get("").toAbsolutePath();
+                        factory = new PlaylistList(context, root, true);
+                    }
+                    Playlist that = Playlist.ofPlaylistOrSong(context, into);
+                    factory.removePlaylist(that);
+                    factory.stream()
+                        .peek(list -> System.err.format("SONGBASE: Add %s to %s\n", that.getName(), list.getName()))
+                        .forEach(list -> list.add(that.entries()));
+                    factory.update(sorted);
+                    break;
                 }
-                Playlist that = Playlist.ofPlaylistOrSong(into);
-                factory.removePlaylist(that);
-                factory.stream()
-                    .peek(list -> System.err.format("SONGBASE: Remove %s from %s\n", that.getName(), list.getName()))
-                    .forEach(list -> list.remove(that.entries()));
-                factory.update(sorted);
-                break;
-            }
-            case UNION: {
-                if (paras.isEmpty()) throw new RuntimeException("Please supply input playlist[s] or specify - for stdin");
-                PlaylistList factory = args2Factory(paras, root, type, null);
-                if (root == null) root = factory.getBase();
-                Playlist result = arg2Playlist(null, root, type, out);
-                result.add(
+                case REMOVE: {
+                    if (paras.isEmpty() && streaming) {
+                        if (root == null) root = Paths.get("").toAbsolutePath();
+                        Playlist that = Playlist.ofPlaylistOrSong(context, into);
+                        Path skip = (that.getPath() != null) ? that.getPath().toAbsolutePath().normalize() : null;
+                        PlaylistList.forEach(context, root, path -> !path.toAbsolutePath().normalize().equals(skip), list -> {
+                            System.err.format("SONGBASE: Remove %s from %s\n", that.getName(), list.getName());
+                            list.remove(that.entries());
+                        }, sorted);
+                        break;
+                    }
+                    PlaylistList factory;
+                    if (!paras.isEmpty()) {
+                        factory = args2Factory(context, paras, root, type, out);
+                    }
+                    else {
+                        if (root == null) root = Paths.get("").toAbsolutePath();
+                        factory = new PlaylistList(context, root, true);
+                    }
+                    Playlist that = Playlist.ofPlaylistOrSong(context, into);
+                    factory.removePlaylist(that);
                     factory.stream()
-                        .peek(list -> System.err.format("SONGBASE: Add %s\n", list.getName()))
-                        .flatMap(list -> list.entries()));
-                result.write(sorted);
-                break;
-            }
-            case INTERSECT: {
-                if (paras.isEmpty()) throw new RuntimeException("Please supply input playlist or specify - for stdin");
-                if (paras.size() > 1) throw new RuntimeException("Only one playlist argument  can be specified for '--intersect' operation");
-                Playlist thiz = arg2Playlist(paras.poll(), root, type, null);
-                if (root == null) root = thiz.getBase();
-                Playlist that = Playlist.of(into);
-                Playlist result = arg2Playlist(null, root, type, out);
-                System.err.format("SONGBASE: Common songs of %s and %s\n", thiz.getName(), that.getName());
-                result.add(
-                    thiz.intersect(that)
-                );
-                result.write(sorted);
-                break;
-            }
-            case MAP: {
-                if (paras.isEmpty()) throw new RuntimeException("Please supply input playlist or specify - for stdin");
-                if (paras.size() > 1) throw new RuntimeException("Only one playlist argument can be specified for '--map' operation");
-                Playlist that = arg2Playlist(paras.poll(), root, type, out);
+                        .peek(list -> System.err.format("SONGBASE: Remove %s from %s\n", that.getName(), list.getName()))
+                        .forEach(list -> list.remove(that.entries()));
+                    factory.update(sorted);
+                    break;
+                }
+                case UNION: {
+                    if (paras.isEmpty()) throw new RuntimeException("Please supply input playlist[s] or specify - for stdin");
+                    PlaylistList factory = args2Factory(context, paras, root, type, null);
+                    if (root == null) root = factory.getBase();
+                    Playlist result = arg2Playlist(context, null, root, type, out);
+                    result.add(
+                        factory.stream()
+                            .peek(list -> System.err.format("SONGBASE: Add %s\n", list.getName()))
+                            .flatMap(list -> list.entries()));
+                    result.write(sorted);
+                    break;
+                }
+                case INTERSECT: {
+                    if (paras.isEmpty()) throw new RuntimeException("Please supply input playlist or specify - for stdin");
+                    if (paras.size() > 1) throw new RuntimeException("Only one playlist argument  can be specified for '--intersect' operation");
+                    Playlist thiz = arg2Playlist(context, paras.poll(), root, type, null);
+                    if (root == null) root = thiz.getBase();
+                    Playlist that = Playlist.of(context, into);
+                    Playlist result = arg2Playlist(context, null, root, type, out);
+                    System.err.format("SONGBASE: Common songs of %s and %s\n", thiz.getName(), that.getName());
+                    result.add(
+                        thiz.intersect(that)
+                    );
+                    result.write(sorted);
+                    break;
+                }
+                case MAP: {
+                    if (paras.isEmpty()) throw new RuntimeException("Please supply input playlist or specify - for stdin");
+                    if (paras.size() > 1) throw new RuntimeException("Only one playlist argument can be specified for '--map' operation");
+                    Playlist that = arg2Playlist(context, paras.poll(), root, type, out);
 
-                Path base = that.getBase();
-                Path to = base.resolve(into);
-                if (!Files.isDirectory(to)) throw new RuntimeException("To folder not found: " + to.toString());
+                    MovePlan plan = MovePlan.ofMapping(that, from, into, dointerpret, delete);
 
-                if (root == null) root = base;
-                PlaylistList factory = new PlaylistList(root, true);
-                factory.removePlaylist(that);
+                    if (root == null) root = plan.getBase();
+                    PlaylistList factory = new PlaylistList(context, root, true);
+                    factory.removePlaylist(that);
 
-                System.err.format("SONGBASE: Mapping '%s' -> '%s' based on %s\n", from.replaceAll("\\\\", "/"), into.toString().replaceAll("\\\\", "/"), that.getName());
-                int countno = 0;
-                Map<Path, Integer> counts = new TreeMap<>();
-                for (Playlist.Entry song : that.getEntries()) {
-                    String folder = song.getFolderString();
-                    if (!folder.equals(from)) {
-                        countno++;
-                        continue;
-                    }
-                    Path newpath = to;
-                    if (dointerpret) {
-                        Path intpath = base.resolve(song.getInterpret());
-                        if (Files.isDirectory(intpath)) newpath = intpath;
-                    }
-                    if (Files.isSameFile(base.resolve(folder), newpath)) {
-                        countno++;
-                        continue;
-                    }
-                    Song dup = song.move(newpath, delete);
-                    int count = counts.getOrDefault(newpath, 0);
-                    counts.put(newpath, count + 1);
-                    if (dup != null) {
-                        factory.move(song, dup);
+                    System.err.format("SONGBASE: Mapping '%s' -> '%s' based on %s\n", from.replaceAll("\\\\", "/"), into.toString().replaceAll("\\\\", "/"), that.getName());
+                    if ((planout != null) || options.isDryrun()) writePlan(plan, planout);
+                    executePlan(plan, that, factory, options, sorted);
+                    break;
+                }
+                case APPLY: {
+                    MovePlan plan = MovePlan.read(into);
+                    // a plan based on a playlist from stdin is applied to the playlist read from stdin again
+                    Playlist that = (plan.getList() != null) ? Playlist.of(context, plan.getList()) : arg2Playlist(context, "-", plan.getBase(), type, out);
+
+                    if (root == null) root = plan.getBase();
+                    PlaylistList factory = new PlaylistList(context, root, true);
+                    factory.removePlaylist(that);
+
+                    System.err.format("SONGBASE: Applying %s based on %s\n", into.getFileName().toString(), that.getName());
+                    executePlan(plan, that, factory, options, sorted);
+                    break;
+                }
+                case DUPLICATES: {
+                    if (root == null) root = Paths.get("").toAbsolutePath();
+                    PlaylistList factory = new PlaylistList(context, root, true);
+                    Duplicates finder = new Duplicates(context, root, factory);
+                    System.err.format("SONGBASE: Searching duplicates in %s\n", root.toString());
+                    List<Duplicates.Group> groups = finder.find();
+                    finder.report(groups, System.out);
+                    System.err.format("Duplicate groups: %d\n", groups.size());
+                    if (duplicates == Duplicates.Mode.MERGE) {
+                        finder.merge(groups, factory);
+                        factory.update(sorted);
+                    }
+                    break;
+                }
+                case SIMILAR: {
+                    if (root == null) root = Paths.get("").toAbsolutePath();
+                    System.err.format("SONGBASE: Searching similar songs in %s\n", root.toString());
+                    Similar finder = new Similar(context, root);
+                    List<Similar.Pair> pairs = finder.find(similarity / 100.0);
+                    finder.report(pairs, System.out);
+                    System.err.format("Similar pairs: %d, songs without interpret and title: %d\n", pairs.size(), finder.getSkipped());
+                    if (finder.getOversized() > 0) System.err.format("Groups too large to compare: %d\n", finder.getOversized());
+                    break;
+                }
+                case ORPHANS: {
+                    PlaylistList factory;
+                    if (!paras.isEmpty()) {
+                        factory = args2Factory(context, paras, root, type, null);
+                        if (root == null) root = factory.getBase();
+                    }
+                    else {
+                        if (root == null) root = Paths.get("").toAbsolutePath();
+                        factory = new PlaylistList(context, root, true);
                     }
+                    System.err.format("SONGBASE: Searching unreferenced songs in %s\n", root.toString());
+                    Orphans finder = new Orphans(context, root, factory);
+                    int found;
+                    if (!sorted && !options.isDryrun()) {
+                        // the songs are written as they are found
+                        PlaylistSubscriber result = arg2Subscriber(context, root, type, out);
+                        try {
+                            found = finder.publish(result);
+                        }
+                        catch (RuntimeException ex) {
+                            // the output is discarded before the run ends
+                            result.getCompletion().exceptionally(failure -> 0).join();
+                            throw ex;
+                        }
+                        try {
+                            result.getCompletion().join();
+                        }
+                        catch (CompletionException ex) {
+                            throw new RuntimeException(ex.getCause().getMessage(), ex.getCause());
+                        }
+                    }
+                    else {
+                        List<Song> orphans = finder.find();
+                        Playlist result = arg2Playlist(context, null, root, type, out);
+                        result.add(orphans.stream());
+                        result.write(sorted);
+                        found = orphans.size();
+                    }
+                    finder.getUnnamed().forEach(path -> System.err.format("SONG: Cannot detect interpret and title: %s\n", path.toString()));
+                    System.err.format("Referenced songs: %d, unreferenced songs: %d\n", finder.getReferenced(), found + finder.getUnnamed().size());
+                    break;
+                }
+                case REPAIR: {
+                    PlaylistList factory;
+                    if (!paras.isEmpty()) {
+                        factory = args2Factory(context, paras, root, type, out);
+                        if (root == null) root = factory.getBase();
+                    }
+                    else {
+                        if (root == null) root = Paths.get("").toAbsolutePath();
+                        factory = new PlaylistList(context, root, true);
+                    }
+                    System.err.format("SONGBASE: Repairing playlists in %s\n", root.toString());
+                    Repair repair = new Repair(context, root);
+                    repair.repair(factory);
+                    factory.update(sorted);
+                    System.err.format("Repaired songs: %d, ambiguous: %d, not found: %d\n", repair.getRepaired(), repair.getAmbiguous(), repair.getUnresolved());
+                    break;
+                }
+                case DURATIONS: {
+                    PlaylistList factory;
+                    if (!paras.isEmpty()) {
+                        factory = args2Factory(context, paras, root, type, out);
+                        if (root == null) root = factory.getBase();
+                    }
+                    else {
+                        if (root == null) root = Paths.get("").toAbsolutePath();
+                        factory = new PlaylistList(context, root, true);
+                    }
+                    System.err.format("SONGBASE: Reading durations in %s\n", root.toString());
+                    Set<Path> songs = factory.stream()
+                        .flatMap(list -> list.entries())
+                        .filter(entry -> entry.getDuration() < 0)
+                        .map(entry -> entry.getPath())
+                        .collect(Collectors.toCollection(LinkedHashSet::new));
+                    MetadataCache cache = (context.getMetadata() != null) ? context.getMetadata() : new MetadataCache(context, root);
+                    Map<Path, Long> durations = cache.getDurations(songs);
+                    factory.stream().forEach(list -> {
+                        long total = list.setDurations(durations);
+                        System.err.format("SONGBASE: Duration %d:%02d:%02d, %s\n", total / 3600, total / 60 % 60, total % 60, list.getName());
+                    });
+                    factory.update(sorted);
+                    long unknown = durations.values().stream().filter(duration -> duration < 0).count();
+                    System.err.format("Read songs: %d, songs without duration: %d\n", cache.getRead(), unknown);
+                    break;
+                }
+                case RECOVER: {
+                    if (root == null) root = Paths.get("").toAbsolutePath();
+                    MoveJournal.recover(context, root, recovery, sorted);
+                    break;
+                }
+                default:
+                    if (paras.isEmpty()) break;
+                    if (out == null) throw new RuntimeException("Please specify an operation option");
+                    if (paras.size() > 1) throw new RuntimeException("Only one playlist can be specified if '--out' option is used");
+                    String arg = paras.poll();
+                    // plain conversion between streaming playlist types does not read the whole playlist
+                    if (!sorted && !options.isDryrun() && isStreamable(arg, out, type)) {
+                        if (out.equals("-")) Playlist.convert(context, Paths.get(arg), System.out, type);
+                        else Playlist.convert(context, Paths.get(arg), Paths.get(out));
+                        break;
+                    }
+                    Playlist thiz = arg2Playlist(context, arg, root, type, out);
+                    thiz.write(sorted);
+                    break;
                 }
-                that.update(sorted);
-                factory.update(sorted);
-                counts.forEach((path, count) -> System.err.format("Moves to %s: %d\n", base.relativize(path).toString().replaceAll("\\\\", "/"), count));
-                System.err.format("Without move: %d\n", countno);
-                break;
+                if (context.getMetadata() != null) context.getMetadata().save();
+                if (context.getSkipped() > 0) System.err.format("Unchanged playlists not written: %d\n", context.getSkipped());
             }
-            default:
-                if (paras.isEmpty()) break;
-                if (out == null) throw new RuntimeException("Please specify an operation option");
-                if (paras.size() > 1) throw new RuntimeException("Only one playlist can be specified if '--out' option is used");
-                Playlist thiz = arg2Playlist(paras.poll(), root, type, out);
-                thiz.write(sorted);
-                break;
+            finally {
+                context.releaseLocks();
             }
         }
         catch (Exception ex) {
@@ -0,0 +1,132 @@
+package oanavodo.songbase;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileLock;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Everything one songbase operation depends on: options, log output, caches and the executor for parallel work.
+ * The context is passed to all playlists, playlist lists and songs created for an operation, so independent
+ * operations with their own contexts can run at the same time in one process.
+ * @author Reiner
+ */
+public class SongBaseContext {
+
+    private final Options options;
+    private final PrintStream log;
+    private final Jobs jobs;
+    private final Map<Path, FileStore> stores = new ConcurrentHashMap<>();
+    private final Map<Path, FileLock> locks = new ConcurrentHashMap<>();
+    private final AtomicInteger skipped = new AtomicInteger(0);
+    private volatile MetadataCache metadata = null;
+
+    /**
+     * Creates a context which logs to standard error.
+     * @param options options of the operation
+     */
+    public SongBaseContext(Options options) {
+        this(options, System.err);
+    }
+
+    /**
+     * Creates a context.
+     * @param options options of the operation
+     * @param log where progress and problems are reported
+     */
+    public SongBaseContext(Options options, PrintStream log) {
+        this.options = options;
+        this.log = log;
+        this.jobs = new Jobs(options, log);
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    public PrintStream getLog() {
+        return log;
+    }
+
+    public Jobs getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Returns the cache of file stores by folder used for moving songs.
+     * @return
+     */
+    public Map<Path, FileStore> getFileStores() {
+        return stores;
+    }
+
+    /**
+     * Returns the cache of song metadata if interpret and title of songs are read from their tags.
+     * @return cache or null if interpret and title are taken from the file names
+     */
+    public MetadataCache getMetadata() {
+        return metadata;
+    }
+
+    public void setMetadata(MetadataCache metadata) {
+        this.metadata = metadata;
+    }
+
+    /**
+     * Returns the advisory locks of playlist files held by this operation by their lock file.
+     * @return
+     */
+    public Map<Path, FileLock> getLocks() {
+        return locks;
+    }
+
+    /**
+     * Releases an advisory lock of a playlist file held by this operation and removes the lock file.
+     * The lock file is removed while the lock is still held, so a run waiting for the lock detects the removal.
+     * @param file lock file
+     */
+    public void releaseLock(Path file) {
+        FileLock lock = locks.remove(file);
+        if (lock == null) return;
+        try {
+            Files.deleteIfExists(file);
+        }
+        catch (IOException ex) {
+            log.format("PLAYLIST: Cannot remove lock file: %s\n", ex.getMessage());
+        }
+        try {
+            lock.channel().close();
+        }
+        catch (IOException ex) {
+            log.format("PLAYLIST: Cannot release lock: %s\n", ex.getMessage());
+        }
+    }
+
+    /**
+     * Releases all advisory locks of playlist files held by this operation.
+     */
+    public void releaseLocks() {
+        new ArrayList<>(locks.keySet()).forEach(file -> releaseLock(file));
+    }
+
+    /**
+     * Counts a changed playlist which has not been written because the content would not change.
+     */
+    public void countSkipped() {
+        skipped.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of changed playlists which have not been written because the content would not change.
+     * @return
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+}
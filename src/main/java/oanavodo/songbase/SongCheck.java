@@ -0,0 +1,252 @@
+package oanavodo.songbase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import oanavodo.songbase.playlist.Playlist;
+
+/**
+ * Checks if the songs of playlists exist.
+ * Each song is checked only once even if it is referenced by several playlists. The folders are checked in parallel.
+ * Results are remembered in a cache file in the base folder. In a later run only songs in folders with a changed
+ * modification time and songs not checked before are checked again.
+ * @author Reiner
+ */
+public class SongCheck {
+
+    public static final String NAME = ".songbase-check";
+
+    private static final String HEADER = "#SONGBASE-CHECK";
+
+    public static enum Format { TEXT, JSON };
+
+    private static class Folder {
+        private final long modified;
+        private final Map<String, Boolean> songs = new HashMap<>();
+
+        private Folder(long modified) {
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * A missing song together with the playlists which reference it.
+     */
+    public static class Missing {
+        private final Path song;
+        private final List<Playlist> lists;
+
+        private Missing(Path song, List<Playlist> lists) {
+            this.song = song;
+            this.lists = lists;
+        }
+
+        public Path getSong() {
+            return song;
+        }
+
+        public List<Playlist> getPlaylists() {
+            return lists;
+        }
+    }
+
+    /**
+     * Result of a check.
+     */
+    public static class Report {
+        private final int songs;
+        private final int checked;
+        private final List<Missing> missing;
+
+        private Report(int songs, int checked, List<Missing> missing) {
+            this.songs = songs;
+            this.checked = checked;
+            this.missing = missing;
+        }
+
+        /**
+         * Returns the number of different songs.
+         * @return
+         */
+        public int getSongs() {
+            return songs;
+        }
+
+        /**
+         * Returns the number of songs which had to be checked in the file system.
+         * @return
+         */
+        public int getChecked() {
+            return checked;
+        }
+
+        public List<Missing> getMissing() {
+            return missing;
+        }
+
+        /**
+         * Prints the report.
+         * @param format report format
+         * @param out where the report is written to
+         */
+        public void print(Format format, PrintStream out) {
+            if (format == Format.JSON) {
+                out.println("{");
+                out.format("  \"songs\": %d,\n", songs);
+                out.format("  \"checked\": %d,\n", checked);
+                out.print("  \"missing\": [");
+                for (int i = 0; i < missing.size(); i++) {
+                    Missing miss = missing.get(i);
+                    out.print((i > 0) ? ",\n" : "\n");
+                    out.format("    {\"song\": %s, \"playlists\": [%s]}", Json.quote(miss.song.toString()), miss.lists.stream()
+                        .map(list -> Json.quote((list.getPath() != null) ? list.getPath().toString() : list.getName()))
+                        .collect(Collectors.joining(", ")));
+                }
+                out.println(missing.isEmpty() ? "]" : "\n  ]");
+                out.println("}");
+            }
+            else {
+                missing.forEach(miss -> out.format("Song not found: %s (%s)\n", miss.song.toString(), miss.lists.stream()
+                    .map(list -> list.getName())
+                    .collect(Collectors.joining(", "))));
+            }
+            out.flush();
+        }
+    }
+
+    private final SongBaseContext context;
+    private final Path cache;
+    private final Map<Path, Folder> folders = new HashMap<>();
+
+    /**
+     * Creates a checker which uses the cache file in the base folder.
+     * @param context context of the operation
+     * @param base base folder
+     */
+    public SongCheck(SongBaseContext context, Path base) {
+        this.context = context;
+        this.cache = base.resolve(NAME);
+        load();
+    }
+
+    /**
+     * Checks all songs of the playlists.
+     * @param lists playlists to be checked
+     * @return
+     */
+    public Report check(Stream<Playlist> lists) {
+        Map<Path, List<Playlist>> refs = new LinkedHashMap<>();
+        lists.forEach(list -> list.entries().forEach(entry -> {
+            List<Playlist> using = refs.computeIfAbsent(entry.getPath(), key -> new ArrayList<>());
+            if (!using.contains(list)) using.add(list);
+        }));
+        Map<Path, List<Path>> byfolder = refs.keySet().stream().collect(Collectors.groupingBy(song -> song.getParent(), LinkedHashMap::new, Collectors.toList()));
+
+        AtomicInteger checked = new AtomicInteger(0);
+        Map<Path, Future<Folder>> results = new LinkedHashMap<>();
+        try {
+            byfolder.forEach((folder, songs) -> {
+                Folder cached = folders.get(folder);
+                results.put(folder, context.getJobs().submit(() -> checkFolder(folder, songs, cached, checked)));
+            });
+            for (Map.Entry<Path, Future<Folder>> result : results.entrySet()) {
+                folders.put(result.getKey(), result.getValue().get());
+            }
+        }
+        catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause().getMessage(), ex.getCause());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Check interrupted", ex);
+        }
+        if (!context.getOptions().isDryrun()) save();
+
+        List<Missing> missing = refs.entrySet().stream()
+            .filter(ref -> !folders.get(ref.getKey().getParent()).songs.get(ref.getKey().getFileName().toString()))
+            .map(ref -> new Missing(ref.getKey(), ref.getValue()))
+            .collect(Collectors.toList());
+        return new Report(refs.size(), checked.get(), missing);
+    }
+
+    private Folder checkFolder(Path folder, List<Path> songs, Folder cached, AtomicInteger checked) {
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(folder).toMillis();
+        }
+        catch (IOException ex) {
+            modified = -1;
+        }
+        Folder result = new Folder(modified);
+        // content of a folder can only be changed together with its modification time
+        if ((cached != null) && (modified != -1) && (cached.modified == modified)) result.songs.putAll(cached.songs);
+        for (Path song : songs) {
+            String name = song.getFileName().toString();
+            if (result.songs.containsKey(name)) continue;
+            result.songs.put(name, (modified != -1) && Files.isRegularFile(song));
+            checked.incrementAndGet();
+        }
+        return result;
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(cache)) return;
+        try (BufferedReader reader = Files.newBufferedReader(cache, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if ((line == null) || !line.equals(HEADER)) return;
+            Folder folder = null;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length != 3) throw new IOException("Invalid cache line: " + line);
+                if (parts[0].equals("D")) {
+                    folder = new Folder(Long.parseLong(parts[1]));
+                    folders.put(Paths.get(parts[2]), folder);
+                }
+                else if (parts[0].equals("F") && (folder != null)) {
+                    folder.songs.put(parts[2], parts[1].equals("1"));
+                }
+                else {
+                    throw new IOException("Invalid cache line: " + line);
+                }
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            // a damaged cache only costs a full check
+            context.getLog().format("CHECK: Ignoring cache %s: %s\n", cache.toString(), ex.getMessage());
+            folders.clear();
+        }
+    }
+
+    private void save() {
+        Path temp = cache.resolveSibling(NAME + ".tmp");
+        try {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8))) {
+                out.print(HEADER + "\n");
+                folders.forEach((path, folder) -> {
+                    out.format("D\t%d\t%s\n", folder.modified, path.toString());
+                    folder.songs.forEach((name, exists) -> out.format("F\t%s\t%s\n", exists ? "1" : "0", name));
+                });
+            }
+            Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException ex) {
+            context.getLog().format("CHECK: Cannot write cache %s: %s\n", cache.toString(), ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package oanavodo.songbase;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import oanavodo.songbase.playlist.PlaylistIO;
+
+/**
+ * Song files found in a music folder tree.
+ * Size and modification time are taken from the folder walk so no further file access is needed.
+ * Folders are listed in parallel.
+ * @author Reiner
+ */
+public class SongTree {
+
+    /**
+     * A song file with its attributes.
+     */
+    public static class FileInfo {
+        private final Path path;
+        private final long size;
+        private final long modified;
+
+        private FileInfo(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.size = attrs.size();
+            this.modified = attrs.lastModifiedTime().toMillis();
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+    }
+
+    private SongTree() {}
+
+    /**
+     * Returns all song files beyond the base folder.
+     * @param context context of the operation
+     * @param base base folder
+     * @return song files sorted by path
+     */
+    public static List<FileInfo> scan(SongBaseContext context, Path base) {
+        List<FileInfo> songs = new ArrayList<>();
+        walk(context, base, folder -> {
+            synchronized (songs) {
+                songs.addAll(folder);
+            }
+        });
+        songs.sort(Comparator.comparing(song -> song.path));
+        return songs;
+    }
+
+    /**
+     * Hands the song files of each folder beyond the base folder to a consumer as soon as the folder is listed.
+     * The consumer is called by several threads at the same time and for the folders in no particular order.
+     * @param context context of the operation
+     * @param base base folder
+     * @param found consumer of the song files of one folder sorted by path
+     */
+    public static void walk(SongBaseContext context, Path base, Consumer<List<FileInfo>> found) {
+        Path root = base.toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) throw new RuntimeException("Folder not found: " + root.toString());
+        context.getJobs().getPool().invoke(new Walk(root, found));
+    }
+
+    private static class Walk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path folder;
+        private final Consumer<List<FileInfo>> found;
+
+        private Walk(Path folder, Consumer<List<FileInfo>> found) {
+            this.folder = folder;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+            List<FileInfo> songs = new ArrayList<>();
+            List<Walk> subs = new ArrayList<>();
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(folder)) {
+                for (Path path : dir) {
+                    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) subs.add(new Walk(path, found));
+                    else if (attrs.isRegularFile() && PlaylistIO.isSong(path)) songs.add(new FileInfo(path, attrs));
+                }
+            }
+            catch (IOException ex) {
+                throw new RuntimeException("Cannot read folder: " + folder.toString(), ex);
+            }
+            songs.sort(Comparator.comparing(song -> song.path));
+            if (!songs.isEmpty()) found.accept(songs);
+            invokeAll(subs);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package oanavodo.songbase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Moves song files.
+ * Within the same file store a move is a plain rename. Between different file stores the song is copied
+ * in chunks to a temporary file in the target folder, verified by checksum and renamed afterwards.
+ * The source is deleted only after a successful verification.
+ * An instance may be used by several threads concurrently and counts the throughput of all copies.
+ * @author Reiner
+ */
+public class Transfer {
+
+    private static final long CHUNK = 8L << 20;
+    private static final int BUFFER = 1 << 20;
+    private static final String PARTIAL = ".part";
+
+    private final Map<Path, FileStore> stores;
+    private final AtomicLong copies = new AtomicLong(0);
+    private final AtomicLong bytes = new AtomicLong(0);
+
+    /**
+     * Creates a transfer which uses the file store cache of the context.
+     * @param context context of the operation
+     */
+    public Transfer(SongBaseContext context) {
+        this.stores = context.getFileStores();
+    }
+
+    /**
+     * Moves a file.
+     * @param source file to be moved
+     * @param target new file path
+     * @return true if file has been copied between different file stores
+     * @throws FileAlreadyExistsException if target file already exists
+     * @throws IOException
+     */
+    public boolean move(Path source, Path target) throws IOException {
+        if (Files.exists(target)) throw new FileAlreadyExistsException(target.toString());
+        if (store(source.getParent()).equals(store(target.getParent()))) {
+            Files.move(source, target);
+            return false;
+        }
+        Path partial = target.resolveSibling("." + target.getFileName().toString() + PARTIAL);
+        // left over from an interrupted run
+        Files.deleteIfExists(partial);
+        try {
+            long size = copy(source, partial);
+            if (checksum(source) != checksum(partial)) throw new IOException("Verification of copy failed: " + target.toString());
+            Files.setLastModifiedTime(partial, Files.getLastModifiedTime(source));
+            Files.move(partial, target);
+            bytes.addAndGet(size);
+        }
+        catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(partial);
+            throw ex;
+        }
+        Files.delete(source);
+        copies.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the number of files copied between different file stores.
+     * @return
+     */
+    public long getCopies() {
+        return copies.get();
+    }
+
+    /**
+     * Returns a throughput report of the copies or null if nothing has been copied.
+     * @param elapsed elapsed time of all moves in nanoseconds
+     * @return
+     */
+    public String report(long elapsed) {
+        if (copies.get() == 0) return null;
+        double mb = bytes.get() / (1024.0 * 1024.0);
+        double seconds = Math.max(elapsed, 1) / 1e9;
+        return String.format("Copied between file stores: %d songs, %.1f MB in %.1f s (%.1f MB/s)", copies.get(), mb, seconds, mb / seconds);
+    }
+
+    private FileStore store(Path folder) throws IOException {
+        Path key = folder.toAbsolutePath().normalize();
+        FileStore store = stores.get(key);
+        if (store == null) {
+            store = Files.getFileStore(key);
+            stores.put(key, store);
+        }
+        return store;
+    }
+
+    private long copy(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long count = in.transferTo(position, Math.min(CHUNK, size - position), out);
+                if (count <= 0) throw new IOException("Copy stalled: " + source.toString());
+                position += count;
+            }
+            out.force(true);
+            return size;
+        }
+    }
+
+    /**
+     * Returns the checksum of a file which is used to verify a copy.
+     * @param file file to be read
+     * @return
+     * @throws IOException
+     */
+    protected long checksum(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+}
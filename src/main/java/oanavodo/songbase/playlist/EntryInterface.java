@@ -4,4 +4,5 @@ public interface EntryInterface {
     public String getEntryString();
     public String getFolderString();
     public String getNameString();
+    public String getInfo();
 }
@@ -0,0 +1,252 @@
+package oanavodo.songbase.playlist;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Codec of the jsonl playlist type (JSON lines, utf-8).
+ * @author Reiner
+ */
+public class JsonlCodec implements PlaylistCodec {
+
+    @Override
+    public Set<String> getTypes() {
+        return Set.of("jsonl");
+    }
+
+    @Override
+    public PlaylistIO create(Path path, InputStream in, OutputStream out) throws IOException {
+        return new Jsonl(path, in, out);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public boolean isAppendable() {
+        return true;
+    }
+
+    /**
+     * Subclass represents jsonl format.
+     * Each line is a JSON object of one entry: {"location":"folder/name","info":"extended info"}. The info member is
+     * only written if the entry has an extended info. Other members are ignored when read.
+     */
+    static class Jsonl extends PlaylistIO {
+
+        private static final String LOCATION = "location";
+        private static final String INFO = "info";
+
+        protected Jsonl(Path path, InputStream in, OutputStream out) throws IOException {
+            super(path, in, out);
+        }
+
+        @Override
+        protected void fill(PlaylistInterface list, boolean onlycheck) throws IOException {
+            fillLines(lines(), list, onlycheck);
+        }
+
+        @Override
+        protected Stream<EntryLine> lines() throws IOException {
+            BufferedReader reader = new UTF8BufferedReader(new InputStreamReader((input == null) ? openFingerprinted() : input, StandardCharsets.UTF_8));
+            return reader.lines()
+                .map(line -> line.trim())
+                .filter(line -> !line.isEmpty())
+                .map(line -> new JsonLine(line).entry())
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    }
+                    catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+        }
+
+        @Override
+        protected void save(PlaylistInterface list) throws IOException {
+            try (EntryWriter out = openWriter()) {
+                Iterator<? extends EntryInterface> entries = list.getEntryIterator();
+                while (entries.hasNext()) out.write(entries.next());
+                out.commit();
+            }
+        }
+
+        @Override
+        protected EntryWriter openWriter() throws IOException {
+            Output target = openOutput();
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8));
+            return new EntryWriter() {
+                @Override
+                public void write(EntryInterface entry) {
+                    out.println(format(entry));
+                }
+
+                @Override
+                public void commit() throws IOException {
+                    out.flush();
+                    if (out.checkError()) throw new IOException("Cannot write playlist: " + name);
+                    target.commit();
+                }
+
+                @Override
+                public void close() {
+                    out.close();
+                }
+            };
+        }
+
+        @Override
+        protected boolean append(PlaylistInterface list) throws IOException {
+            return appendLines(StandardCharsets.UTF_8, list, entry -> format(entry));
+        }
+
+        private static String format(EntryInterface entry) {
+            StringBuilder line = new StringBuilder("{");
+            member(line, LOCATION, entry.getEntryString());
+            if (entry.getInfo() != null) {
+                line.append(',');
+                member(line, INFO, entry.getInfo());
+            }
+            return line.append("}").toString();
+        }
+
+        private static void member(StringBuilder line, String key, String value) {
+            line.append('"').append(key).append("\":\"");
+            for (char c : value.toCharArray()) {
+                switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                default:
+                    if (c < 0x20) line.append(String.format("\\u%04x", (int)c));
+                    else line.append(c);
+                }
+            }
+            line.append('"');
+        }
+
+        /**
+         * Minimal reader of the JSON object of one line. Only the string values of the location and info members are decoded,
+         * other values are skipped.
+         */
+        private class JsonLine {
+            private final String line;
+            private int pos = 0;
+
+            private JsonLine(String line) {
+                this.line = line;
+            }
+
+            private EntryLine entry() {
+                String location = null;
+                String info = null;
+                expect('{');
+                if (peek() != '}') {
+                    do {
+                        String key = string();
+                        expect(':');
+                        if (key.equals(LOCATION) && (peek() == '"')) location = string();
+                        else if (key.equals(INFO) && (peek() == '"')) info = string();
+                        else skipValue();
+                    } while (accept(','));
+                }
+                expect('}');
+                if (location == null) throw error("no location");
+                return new EntryLine(location.replace("\\", "/"), info);
+            }
+
+            private String string() {
+                expect('"');
+                StringBuilder value = new StringBuilder();
+                while (true) {
+                    char c = next();
+                    if (c == '"') return value.toString();
+                    if (c != '\\') {
+                        value.append(c);
+                        continue;
+                    }
+                    c = next();
+                    switch (c) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > line.length()) throw error("invalid escape");
+                        try {
+                            value.append((char)Integer.parseInt(line.substring(pos, pos + 4), 16));
+                        }
+                        catch (NumberFormatException ex) {
+                            throw error("invalid escape");
+                        }
+                        pos += 4;
+                        break;
+                    default: value.append(c);
+                    }
+                }
+            }
+
+            private void skipValue() {
+                char c = peek();
+                if (c == '"') {
+                    string();
+                    return;
+                }
+                int depth = 0;
+                while (pos < line.length()) {
+                    c = line.charAt(pos);
+                    if (c == '"') {
+                        string();
+                        continue;
+                    }
+                    if ((depth == 0) && ((c == ',') || (c == '}'))) return;
+                    if ((c == '{') || (c == '[')) depth++;
+                    if ((c == '}') || (c == ']')) depth--;
+                    pos++;
+                }
+            }
+
+            private boolean accept(char c) {
+                if (peek() != c) return false;
+                pos++;
+                return true;
+            }
+
+            private void expect(char c) {
+                if (!accept(c)) throw error("'" + c + "' expected");
+            }
+
+            private char peek() {
+                while ((pos < line.length()) && Character.isWhitespace(line.charAt(pos))) pos++;
+                return (pos < line.length()) ? line.charAt(pos) : 0;
+            }
+
+            private char next() {
+                if (pos >= line.length()) throw error("unexpected end");
+                return line.charAt(pos++);
+            }
+
+            private RuntimeException error(String reason) {
+                return new RuntimeException(String.format("Invalid jsonl entry in %s (%s): %s", name, reason, line));
+            }
+        }
+    }
+}
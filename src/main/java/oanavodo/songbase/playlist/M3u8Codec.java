@@ -0,0 +1,66 @@
+package oanavodo.songbase.playlist;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Codec of the m3u8 (utf-8) playlist type.
+ * @author Reiner
+ */
+public class M3u8Codec extends M3uCodec {
+
+    @Override
+    public Set<String> getTypes() {
+        return Set.of("m3u8");
+    }
+
+    @Override
+    public PlaylistIO create(Path path, InputStream in, OutputStream out) throws IOException {
+        return new M3u8(path, in, out);
+    }
+
+    /**
+     * Subclass represents m3u8 (utf-8) format.
+     */
+    static class M3u8 extends M3u {
+
+        protected M3u8(Path path, InputStream in, OutputStream out) throws IOException {
+            super(path, in, out);
+        }
+
+        @Override
+        protected void fill(PlaylistInterface list, boolean onlycheck) throws IOException {
+            fillwithcs(StandardCharsets.UTF_8, list, onlycheck);
+        }
+
+        @Override
+        protected Stream<EntryLine> lines() throws IOException {
+            return lineswithcs(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected void save(PlaylistInterface list) throws IOException {
+            savewithcs(StandardCharsets.UTF_8, list) ;
+        }
+
+        @Override
+        protected EntryWriter openWriter() throws IOException {
+            return openWriterwithcs(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected boolean append(PlaylistInterface list) throws IOException {
+            return appendwithcs(StandardCharsets.UTF_8, list);
+        }
+
+        @Override
+        protected byte[] fingerprint(PlaylistInterface list) {
+            return fingerprintwithcs(StandardCharsets.UTF_8, list);
+        }
+    }
+}
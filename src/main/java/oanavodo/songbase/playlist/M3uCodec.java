@@ -0,0 +1,194 @@
+package oanavodo.songbase.playlist;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Codec of the m3u (iso8859-1) playlist type.
+ * @author Reiner
+ */
+public class M3uCodec implements PlaylistCodec {
+
+    @Override
+    public Set<String> getTypes() {
+        return Set.of("m3u");
+    }
+
+    @Override
+    public PlaylistIO create(Path path, InputStream in, OutputStream out) throws IOException {
+        return new M3u(path, in, out);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public boolean isAppendable() {
+        return true;
+    }
+
+    /**
+     * Subclass represents m3u (iso8859-1) format.
+     * The #EXTINF line before an entry is kept as extended info of the entry, other # lines are ignored.
+     * A playlist is written as extended m3u (#EXTM3U) if its first entry has an extended info.
+     */
+    static class M3u extends PlaylistIO {
+
+        private static final String EXTM3U = "#EXTM3U";
+        private static final String EXTINF = "#EXTINF:";
+
+        protected M3u(Path path, InputStream in, OutputStream out) throws IOException {
+            super(path, in, out);
+        }
+
+        @Override
+        protected void fill(PlaylistInterface list, boolean onlycheck) throws IOException {
+            fillwithcs(StandardCharsets.ISO_8859_1, list, onlycheck);
+        }
+
+        protected void fillwithcs(Charset cs, PlaylistInterface list, boolean onlycheck) throws IOException {
+            fillLines(lineswithcs(cs), list, onlycheck);
+        }
+
+        @Override
+        protected Stream<EntryLine> lines() throws IOException {
+            return lineswithcs(StandardCharsets.ISO_8859_1);
+        }
+
+        protected Stream<EntryLine> lineswithcs(Charset cs) throws IOException {
+            Reader backend = new InputStreamReader((input == null) ? openFingerprinted() : input, cs);
+            BufferedReader reader = (cs == StandardCharsets.UTF_8) ? new UTF8BufferedReader(backend) : new BufferedReader(backend);
+            Iterator<String> lines = reader.lines()
+                .map(line -> line.trim())
+                .filter(line -> !line.isEmpty())
+                .iterator();
+            Iterator<EntryLine> entries = new Iterator<>() {
+                private EntryLine next = null;
+
+                @Override
+                public boolean hasNext() {
+                    String info = null;
+                    while ((next == null) && lines.hasNext()) {
+                        String line = lines.next();
+                        if (line.startsWith(EXTINF)) info = line.substring(EXTINF.length()).trim();
+                        else if (!line.startsWith("#")) next = new EntryLine(line.replace("\\", "/").replace("%20", " "), info);
+                    }
+                    return (next != null);
+                }
+
+                @Override
+                public EntryLine next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    EntryLine entry = next;
+                    next = null;
+                    return entry;
+                }
+            };
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    }
+                    catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+        }
+
+        @Override
+        protected void save(PlaylistInterface list) throws IOException {
+            savewithcs(StandardCharsets.ISO_8859_1, list) ;
+        }
+
+        protected void savewithcs(Charset cs, PlaylistInterface list) throws IOException {
+            try (EntryWriter out = openWriterwithcs(cs)) {
+                Iterator<? extends EntryInterface> entries = list.getEntryIterator();
+                while (entries.hasNext()) out.write(entries.next());
+                out.commit();
+            }
+        }
+
+        @Override
+        protected EntryWriter openWriter() throws IOException {
+            return openWriterwithcs(StandardCharsets.ISO_8859_1);
+        }
+
+        protected EntryWriter openWriterwithcs(Charset cs) throws IOException {
+            Output target = openOutput();
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(target, cs));
+            return new EntryWriter() {
+                private boolean first = true;
+
+                @Override
+                public void write(EntryInterface entry) {
+                    printEntry(out, entry, first);
+                    first = false;
+                }
+
+                @Override
+                public void commit() throws IOException {
+                    out.flush();
+                    if (out.checkError()) throw new IOException("Cannot write playlist: " + name);
+                    target.commit();
+                }
+
+                @Override
+                public void close() {
+                    out.close();
+                }
+            };
+        }
+
+        @Override
+        protected boolean append(PlaylistInterface list) throws IOException {
+            return appendwithcs(StandardCharsets.ISO_8859_1, list);
+        }
+
+        @Override
+        protected byte[] fingerprint(PlaylistInterface list) {
+            return fingerprintwithcs(StandardCharsets.ISO_8859_1, list);
+        }
+
+        protected byte[] fingerprintwithcs(Charset cs, PlaylistInterface list) {
+            MessageDigest md = newDigest();
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new DigestOutputStream(OutputStream.nullOutputStream(), md), cs))) {
+                Iterator<? extends EntryInterface> entries = list.getEntryIterator();
+                for (boolean first = true; entries.hasNext(); first = false) printEntry(out, entries.next(), first);
+            }
+            return md.digest();
+        }
+
+        protected boolean appendwithcs(Charset cs, PlaylistInterface list) throws IOException {
+            return appendLines(cs, list, entry -> (entry.getInfo() != null) ? EXTINF + entry.getInfo() + System.lineSeparator() + entry.getEntryString() : entry.getEntryString());
+        }
+
+        private void printEntry(PrintWriter out, EntryInterface entry, boolean first) {
+            if (entry.getInfo() != null) {
+                if (first) out.println(EXTM3U);
+                out.println(EXTINF + entry.getInfo());
+            }
+            out.println(entry.getEntryString());
+        }
+    }
+}
@@ -3,155 +3,273 @@ package oanavodo.songbase.playlist;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Stream;
-import oanavodo.songbase.Options;
+import oanavodo.songbase.Jobs;
 import oanavodo.songbase.Options.Check;
+import oanavodo.songbase.Options.Locked;
 import oanavodo.songbase.ShuffleList;
 import oanavodo.songbase.Song;
+import oanavodo.songbase.SongBaseContext;
 
 /**
  * Represents a playlist.
  * A playlist can be read/written from/to a file or from/to an input/output stream.
+ * A playlist can be used by several threads. Readers get a snapshot of the entries and are never blocked by changes or writes.
  * @author Reiner
  */
 public class Playlist {
 
-    protected static Options options = new Options();
-
-    public static void setOptions(Options options) {
-        Playlist.options = options;
-    }
-
     /**
      * Instantiates a playlist object from a file.
      * Changes will be written back to this file.
+     * @param context context of the operation
      * @param in path to file
      * @return
      */
-    public static Playlist of(Path in) {
+    public static Playlist of(SongBaseContext context, Path in) {
         PlaylistIO inio = PlaylistIO.of(in);
-        return create(inio, PlaylistIO.of(in), inio.getPath().getParent());
+        return create(context, inio, PlaylistIO.of(in), inio.getPath().getParent());
     }
 
     /**
      * Instantiates a playlist object from a file.
      * Also a fake playlist for one song is allowed.
      * Changes will be written back to this file (if no fake).
+     * @param context context of the operation
      * @param in path to file
      * @return
      */
-    public static Playlist ofPlaylistOrSong(Path in) {
+    public static Playlist ofPlaylistOrSong(SongBaseContext context, Path in) {
         PlaylistIO inio = PlaylistIO.ofPlaylistOrSong(in);
-        return create(inio, PlaylistIO.ofPlaylistOrSong(in), inio.getPath().getParent());
+        return create(context, inio, PlaylistIO.ofPlaylistOrSong(in), inio.getPath().getParent());
     }
 
     /**
      * Instantiates a playlist object from a file.
      * Changes will be written to an output stream.
+     * @param context context of the operation
      * @param in path to file
      * @param out where playlist is written after change
      * @param type playlist type. If null use type of input file
      * @return
      */
-    public static Playlist of(Path in, OutputStream out, String type) {
+    public static Playlist of(SongBaseContext context, Path in, OutputStream out, String type) {
         PlaylistIO inio = PlaylistIO.of(in);
         if (type == null) type = inio.getType();
-        return create(inio, PlaylistIO.of(out, type), inio.getPath().getParent());
+        return create(context, inio, PlaylistIO.of(out, type), inio.getPath().getParent());
     }
 
     /**
      * Instantiates a playlist object from a file.
      * Changes will be written to an output file.
+     * @param context context of the operation
      * @param in path to file
      * @param out where playlist is written after change
      * @return
      */
-    public static Playlist of(Path in, Path out) {
+    public static Playlist of(SongBaseContext context, Path in, Path out) {
         PlaylistIO inio = PlaylistIO.of(in);
-        return create(inio, PlaylistIO.of(out), inio.getPath().getParent());
+        return create(context, inio, PlaylistIO.of(out), inio.getPath().getParent());
     }
 
     /**
      * Instantiates a playlist object from input stream.
      * Changes are written to an output file.
+     * @param context context of the operation
      * @param in where the playlist is read in
      * @param out where playlist is written after change
      * @param parent base folder of the playlist
      * @param type playlist type
      * @return
      */
-    public static Playlist of(InputStream in, Path out, Path parent, String type) {
-        return create(PlaylistIO.of(in, type), PlaylistIO.of(out), parent);
+    public static Playlist of(SongBaseContext context, InputStream in, Path out, Path parent, String type) {
+        return create(context, PlaylistIO.of(in, type), PlaylistIO.of(out), parent);
     }
 
     /**
      * Instantiates a playlist object from input stream.
      * Changes are written to an output stream.
+     * @param context context of the operation
      * @param in where the playlist is read in
      * @param out where playlist is written after change
      * @param parent base folder of the playlist
      * @param type playlist type
      * @return
      */
-    public static Playlist of(InputStream in, OutputStream out, Path parent, String type) {
-        return create(PlaylistIO.of(in, type), PlaylistIO.of(out, type), parent);
+    public static Playlist of(SongBaseContext context, InputStream in, OutputStream out, Path parent, String type) {
+        return create(context, PlaylistIO.of(in, type), PlaylistIO.of(out, type), parent);
     }
 
     /**
      * Instantiates an empty playlist object.
+     * @param context context of the operation
      * @param out where playlist is written after change
      * @param parent base folder of the playlist
      * @param type playlist type
      * @return
      */
-    public static Playlist empty(OutputStream out, Path parent, String type) {
-        return create(PlaylistIO.of(type), PlaylistIO.of(out, type), parent);
+    public static Playlist empty(SongBaseContext context, OutputStream out, Path parent, String type) {
+        return create(context, PlaylistIO.of(type), PlaylistIO.of(out, type), parent);
     }
 
     /**
      * Instantiates an empty playlist object.
+     * @param context context of the operation
      * @param out where playlist is written after change
      * @param parent base folder of the playlist
      * @return
      */
-    public static Playlist empty(Path out, Path parent) {
+    public static Playlist empty(SongBaseContext context, Path out, Path parent) {
         PlaylistIO outio = PlaylistIO.of(out);
-        return create(PlaylistIO.of(outio.getType()), outio, parent);
+        return create(context, PlaylistIO.of(outio.getType()), outio, parent);
     }
 
-    private static Playlist create(PlaylistIO in, PlaylistIO out, Path parent) {
+    /**
+     * Instantiates a publisher which reads the entries of a playlist file on demand.
+     * The playlist is not read before a subscriber requests entries.
+     * @param context context of the operation
+     * @param in path to file
+     * @return
+     */
+    public static PlaylistPublisher publisher(SongBaseContext context, Path in) {
+        PlaylistIO inio = PlaylistIO.of(in);
+        if (!Files.isRegularFile(inio.getPath())) throw new RuntimeException("Playlist not found: " + inio.getPath().toString());
+        Playlist list = new Playlist(context, inio, PlaylistIO.of(inio.getType()), inio.getPath().getParent().normalize().toAbsolutePath());
+        return new PlaylistPublisher(list, inio);
+    }
+
+    /**
+     * Instantiates a subscriber which writes the received songs to a playlist file.
+     * @param context context of the operation
+     * @param out where playlist is written
+     * @param parent base folder of the playlist
+     * @return
+     */
+    public static PlaylistSubscriber subscriber(SongBaseContext context, Path out, Path parent) {
+        Playlist list = empty(context, out, parent);
+        return new PlaylistSubscriber(list, list.output);
+    }
+
+    /**
+     * Instantiates a subscriber which writes the received songs to an output stream.
+     * @param context context of the operation
+     * @param out where playlist is written
+     * @param parent base folder of the playlist
+     * @param type playlist type
+     * @return
+     */
+    public static PlaylistSubscriber subscriber(SongBaseContext context, OutputStream out, Path parent, String type) {
+        Playlist list = empty(context, out, parent, type);
+        return new PlaylistSubscriber(list, list.output);
+    }
+
+    /**
+     * Converts a playlist file into a playlist file of another type entry by entry without reading the whole playlist first.
+     * Both playlist types have to be streaming. The entries are written relative to the folder of the output file.
+     * @param context context of the operation
+     * @param in path to file
+     * @param out where the converted playlist is written
+     * @return number of written entries
+     */
+    public static int convert(SongBaseContext context, Path in, Path out) {
+        PlaylistPublisher publisher = publisher(context, in);
+        return convert(context, in, publisher, empty(context, out, out.toAbsolutePath().getParent()));
+    }
+
+    /**
+     * Converts a playlist file entry by entry to an output stream without reading the whole playlist first.
+     * @param context context of the operation
+     * @param in path to file
+     * @param out where the converted playlist is written
+     * @param type playlist type. If null use type of input file
+     * @return number of written entries
+     */
+    public static int convert(SongBaseContext context, Path in, OutputStream out, String type) {
+        PlaylistPublisher publisher = publisher(context, in);
+        Path parent = in.toAbsolutePath().getParent();
+        return convert(context, in, publisher, empty(context, out, parent, (type == null) ? PlaylistIO.detectType(in) : type));
+    }
+
+    private static int convert(SongBaseContext context, Path in, PlaylistPublisher publisher, Playlist list) {
+        context.getLog().format("PLAYLIST: reading %s\n", in.getFileName().toString());
+        context.getLog().format("PLAYLIST: writing %s\n", list.output.getName());
+        PlaylistSubscriber subscriber = new PlaylistSubscriber(list, list.output);
+        // entries are published on the thread which requests them, so the conversion is complete after subscribing
+        publisher.subscribe(subscriber);
+        int written;
+        try {
+            written = subscriber.getCompletion().join();
+        }
+        catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) throw (RuntimeException)ex.getCause();
+            throw new RuntimeException(ex.getCause().getMessage(), ex.getCause());
+        }
+        if (context.getOptions().isSync() && (list.output.getPath() != null)) PlaylistIO.sync(list.output.getPath());
+        return written;
+    }
+
+    private static Playlist create(SongBaseContext context, PlaylistIO in, PlaylistIO out, Path parent) {
         parent = parent.normalize().toAbsolutePath();
-        Playlist list = new Playlist(in, out, parent);
+        Playlist list = new Playlist(context, in, out, parent);
         if ((in.getPath() != null) && !Files.isRegularFile(in.getPath())) {
             throw new RuntimeException("Playlist not found: " + in.getPath().toString());
         }
+        // only a playlist written back to its own file can be appended
+        boolean inplace = (in.getPath() != null) && !in.isOneSong() && in.getPath().equals(out.getPath());
+        if (inplace) out.stamp();
         if (in.hasInput()) {
             try {
-                if (!in.isOneSong()) System.err.format("PLAYLIST: reading %s\n", in.getName());
-                in.fill(list.getInterface(null), (options.getCheck() == Check.ONLY));
+                if (!in.isOneSong()) context.getLog().format("PLAYLIST: reading %s\n", in.getName());
+                List<Entry> loading = new ArrayList<>();
+                in.fill(list.getInterface(loading, null), (context.getOptions().getCheck() == Check.ONLY));
+                list.songs = Collections.unmodifiableList(loading);
             }
             catch (IOException ex) {
                 throw new RuntimeException(ex.getMessage(), ex.getCause());
             }
         }
+        if (inplace) {
+            list.loaded = list.songs.size();
+            list.fingerprint = in.getFingerprint();
+        }
         return list;
     }
 
+    private final SongBaseContext context;
     private PlaylistIO input;
     private PlaylistIO output;
     private Path parent;
-    private final List<Entry> songs = new ArrayList<>();
-    private boolean changed = false;
-
-    private Playlist(PlaylistIO in, PlaylistIO out, Path parent) {
+    // entries are never changed in place but replaced as a whole, so readers always see a consistent snapshot
+    private volatile List<Entry> songs = List.of();
+    // changes of entries and writes are done by one thread at a time
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile boolean changed = false;
+    // number of entries found in the output file or -1 if unknown
+    private int loaded = -1;
+    // whether all changes since loaded are appended entries
+    private boolean appendonly = true;
+    // fingerprint of the output file content or null if unknown
+    private byte[] fingerprint = null;
+
+    private Playlist(SongBaseContext context, PlaylistIO in, PlaylistIO out, Path parent) {
+        this.context = context;
         this.input = in;
         this.output = out;
         this.parent = parent;
@@ -165,10 +283,18 @@ public class Playlist {
         return ((output.getPath() != null) && !input.sameIO(output));
     }
 
+    public SongBaseContext getContext() {
+        return context;
+    }
+
     public Path getBase() {
         return parent;
     }
 
+    Path getOutputPath() {
+        return output.getPath();
+    }
+
     public Path getPath() {
         return input.getPath();
     }
@@ -194,47 +320,60 @@ public class Playlist {
     }
 
     public void add(Stream<? extends Song> adds) {
-        Stream<? extends Song> realadds = adds.filter(song -> songs.parallelStream().noneMatch(entry -> entry.equals(song)));
-        realadds.forEachOrdered(song -> {
-            try {
-                Entry entry = new Entry(parent.relativize(song.getPath()), songs.size());
-                songs.add(entry);
-                changed = true;
-                System.err.format("%s: + %s, %s\n", input.getName(), entry.getFolderString(), entry.getNameString());
-            }
-            catch (IllegalArgumentException ex) {
-                throw new RuntimeException("Song is outside of playlist base: " + song.getPath());
-            }
-        });
+        lock();
+        try {
+            List<Entry> added = new ArrayList<>(songs);
+            // songs are equal by path, so a hash set finds present songs without comparing all entries
+            Set<Song> present = new HashSet<>(added);
+            Stream<? extends Song> realadds = adds.filter(song -> present.add(song));
+            realadds.forEachOrdered(song -> {
+                try {
+                    Entry entry = new Entry(parent.relativize(song.getPath()), added.size(), infoOf(song));
+                    added.add(entry);
+                    context.getLog().format("%s: + %s, %s\n", input.getName(), entry.getFolderString(), entry.getNameString());
+                }
+                catch (IllegalArgumentException ex) {
+                    throw new RuntimeException("Song is outside of playlist base: " + song.getPath());
+                }
+            });
+            if (added.size() == songs.size()) return;
+            songs = Collections.unmodifiableList(added);
+            changed = true;
+        }
+        finally {
+            unlock();
+        }
     }
 
     public void add(Song song) {
         add(Stream.of(song));
     }
 
-    void add(Entry entry) {
-        songs.add(entry);
-    }
-
     public void remove(Stream<? extends Song> rems) {
-        Stream<Integer> realrems = rems.parallel()
-            .map(song -> songs.parallelStream().filter(entry -> entry.equals(song)).map(entry -> entry.getIndex()).findAny().orElse(-1))
-            .filter(index -> (index != -1))
-            .sorted();
-        AtomicInteger offset = new AtomicInteger(0);
-        AtomicInteger lowest = new AtomicInteger(Integer.MAX_VALUE);
-        realrems.forEachOrdered(index -> {
-            index -= offset.get();
-            Entry entry = songs.remove((int)index);
-            if (index < lowest.get()) lowest.set(index);
-            offset.incrementAndGet();
-            changed = true;
-            System.err.format("%s: - %s, %s\n", input.getName(), entry.getFolderString(), entry.getNameString());
-        });
-        if (lowest.get() < Integer.MAX_VALUE) {
-            for (int i = lowest.get(); i < songs.size(); i++) {
-                songs.get(i).setIndex(i);
+        // each song given removes one entry, a song given twice removes two entries
+        Map<Song, Integer> removes = new HashMap<>();
+        rems.forEach(song -> removes.merge(song, 1, Integer::sum));
+        if (removes.isEmpty()) return;
+        lock();
+        try {
+            List<Entry> kept = new ArrayList<>(songs.size());
+            for (Entry entry : songs) {
+                Integer count = removes.get(entry);
+                if (count != null) {
+                    if (count > 1) removes.put(entry, count - 1);
+                    else removes.remove(entry);
+                    context.getLog().format("%s: - %s, %s\n", input.getName(), entry.getFolderString(), entry.getNameString());
+                    continue;
+                }
+                kept.add(reindex(entry, kept.size()));
             }
+            if (kept.size() == songs.size()) return;
+            songs = Collections.unmodifiableList(kept);
+            changed = true;
+            appendonly = false;
+        }
+        finally {
+            unlock();
         }
     }
 
@@ -243,11 +382,54 @@ public class Playlist {
     }
 
     public void move(Song prev, Song now) {
-        songs.parallelStream()
-            .filter(song -> song.equals(prev))
-            .forEach((song) -> {
-                setSong(song.getIndex(), now.getPath());
-            });
+        lock();
+        try {
+            List<Entry> moved = null;
+            for (int i = 0; i < songs.size(); i++) {
+                if (!songs.get(i).equals(prev)) continue;
+                if (moved == null) moved = new ArrayList<>(songs);
+                moved.set(i, replace(i, now.getPath()));
+            }
+            if (moved != null) songs = Collections.unmodifiableList(moved);
+        }
+        finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Sets the duration of entries without a known duration in their extended info.
+     * Entries without extended info get the interpret and title of the song as title.
+     * @param durations duration in milliseconds by song file, missing or -1 if not known
+     * @return total duration of all entries in seconds
+     */
+    public long setDurations(Map<Path, Long> durations) {
+        lock();
+        try {
+            List<Entry> timed = null;
+            long total = 0;
+            for (int i = 0; i < songs.size(); i++) {
+                Entry entry = songs.get(i);
+                long millis = durations.getOrDefault(entry.getPath(), -1L);
+                if ((entry.getDuration() >= 0) || (millis < 0)) {
+                    total += Math.max(0, entry.getDuration());
+                    continue;
+                }
+                int duration = (int)((millis + 500) / 1000);
+                String info = (entry.getInfo() != null) ? PlaylistIO.withDuration(entry.getInfo(), duration) : PlaylistIO.toInfo(duration, entry.getInterpret() + " - " + entry.getTitle());
+                if (timed == null) timed = new ArrayList<>(songs);
+                timed.set(i, new Entry(parent.relativize(entry.getPath()), i, info));
+                total += duration;
+            }
+            if (timed == null) return total;
+            songs = Collections.unmodifiableList(timed);
+            changed = true;
+            appendonly = false;
+            return total;
+        }
+        finally {
+            unlock();
+        }
     }
 
     public Stream<? extends Song> select(String search) {
@@ -260,27 +442,48 @@ public class Playlist {
     }
 
     public Stream<? extends Song> intersect(Playlist that) {
-        return that.songs.stream().filter(ethat -> songs.parallelStream().anyMatch(ethis -> ethis.equals(ethat)));
+        Set<Song> present = new HashSet<>(songs);
+        return that.songs.stream().filter(ethat -> present.contains(ethat));
     }
 
     public Stream<? extends Song> complement(Playlist that) {
-        return that.songs.stream().filter(ethat -> songs.parallelStream().noneMatch(ethis -> ethis.equals(ethat)));
+        Set<Song> present = new HashSet<>(songs);
+        return that.songs.stream().filter(ethat -> !present.contains(ethat));
     }
 
     public void update(boolean sorted) {
         if (isChanged()) write(sorted);
     }
 
-    private PlaylistInterface getInterface(Iterator<Entry> iterator) {
+    /**
+     * Returns the view of this playlist used for reading and writing.
+     * @param loading where read entries are collected (null if not reading)
+     * @param iterator entries to be written (null for all entries)
+     * @return
+     */
+    private PlaylistInterface getInterface(List<Entry> loading, Iterator<Entry> iterator) {
         return new PlaylistInterface() {
             @Override
-            public EntryInterface createEntry(Path path) {
-                return entryOf(path, size());
+            public EntryInterface createEntry(Path path, String info) {
+                // entries may be created in parallel, the position is known when added
+                return entryOf(path, -1, info);
             }
 
             @Override
             public void addEntry(EntryInterface entry) {
-                add((Entry)entry);
+                Entry added = (Entry)entry;
+                added.setIndex(loading.size());
+                loading.add(added);
+            }
+
+            @Override
+            public PrintStream getLog() {
+                return context.getLog();
+            }
+
+            @Override
+            public Jobs getJobs() {
+                return context.getJobs();
             }
 
             @Override
@@ -312,16 +515,85 @@ public class Playlist {
     }
 
     public void write(boolean sorted) {
-        if (!output.hasOutput()) return;
-        if (!output.isOneSong()) System.err.format("PLAYLIST: writing %s\n", output.getName());
-        if (sorted) sort();
+        BooleanSupplier writer = prepareWrite(sorted);
+        if (writer == null) return;
+        if (!writer.getAsBoolean()) return;
+        if (context.getOptions().isSync() && (output.getPath() != null)) PlaylistIO.sync(output.getPath());
+    }
+
+    /**
+     * Prepares writing the playlist.
+     * Sorting, detection of unchanged content and logging are done at once. The returned writer only does the file IO
+     * and can be run in another thread. It writes the entries at the time it is run. It returns false if the playlist
+     * has been skipped because of the lock policy.
+     * @param sorted whether playlist is sorted before writing
+     * @return writer or null if nothing has to be written
+     */
+    BooleanSupplier prepareWrite(boolean sorted) {
+        if (!output.hasOutput()) return null;
+        lock();
+        try {
+            if (sorted) sort();
+            // output path may be based on another folder
+            boolean rebase = ((output.getPath() != null) && !getBase().equals(output.getPath().getParent()));
+            List<Entry> prepared = songs;
+            byte[] content = ((loaded >= 0) && !rebase) ? output.fingerprint(getInterface(null, null)) : null;
+            if ((content != null) && Arrays.equals(content, fingerprint) && output.isUnchanged()) {
+                context.getLog().format("PLAYLIST: unchanged %s\n", output.getName());
+                context.countSkipped();
+                changed = false;
+                return null;
+            }
+            if (!output.isOneSong()) context.getLog().format("PLAYLIST: writing %s\n", output.getName());
+            if (context.getOptions().isDryrun() && (output.getOutput() == null)) {
+                changed = false;
+                return null;
+            }
+            return () -> save(rebase, prepared, content);
+        }
+        finally {
+            unlock();
+        }
+    }
+
+    private boolean save(boolean rebase, List<Entry> prepared, byte[] content) {
+        // the file is locked only while it is written, a change by another run since reading is detected below
+        boolean locked = false;
+        if ((output.getPath() != null) && !output.isOneSong() && !context.getOptions().isDryrun()) {
+            try {
+                locked = PlaylistIO.lock(context, output.getPath());
+            }
+            catch (PlaylistLockedException ex) {
+                if (context.getOptions().getLocked() != Locked.SKIP) throw ex;
+                context.getLog().format("PLAYLIST: locked by another run, not written %s\n", output.getName());
+                changed = false;
+                return false;
+            }
+        }
+        lock();
         try {
-            if (!options.isDryrun() || (output.getOutput() != null)) {
-                // output path may be based on another folder
-                boolean rebase = ((output.getPath() != null) && !getBase().equals(output.getPath().getParent()));
-                output.save(getInterface(rebase ? new RebaseIterator(output.getPath().getParent()) : null));
+            // another program has changed the file since it was read
+            if ((loaded >= 0) && !output.isUnchanged()) {
+                if (context.getOptions().getLocked() != Locked.SKIP) throw new RuntimeException("Playlist has been changed by another program: " + output.getName());
+                context.getLog().format("PLAYLIST: changed by another program, not written %s\n", output.getName());
+                changed = false;
+                return false;
+            }
+            List<Entry> saved = songs;
+            boolean appended = false;
+            if (!rebase && appendonly && output.isAppendable() && (loaded >= 0) && (loaded < saved.size()) && output.isUnchanged()) {
+                appended = output.append(getInterface(null, saved.subList(loaded, saved.size()).iterator()));
+            }
+            if (!appended) output.save(getInterface(null, rebase ? new RebaseIterator(output.getPath().getParent()) : saved.iterator()));
+            if (loaded >= 0) {
+                loaded = saved.size();
+                appendonly = true;
+                // appended file keeps content which is not written by save, a later change invalidates the prepared content
+                fingerprint = (appended || (saved != prepared)) ? null : content;
+                output.stamp();
             }
             changed = false;
+            return true;
         }
         catch (RuntimeException ex) {
             throw ex;
@@ -329,62 +601,131 @@ public class Playlist {
         catch (Exception ex) {
             throw new RuntimeException(ex.getMessage(), ex.getCause());
         }
+        finally {
+            unlock();
+            // a lock taken before the playlist was read is released by its owner
+            if (locked) PlaylistIO.unlock(context, output.getPath());
+        }
     }
 
     public void sort() {
-        songs.sort(Comparator.naturalOrder());
-        for (int i = 0; i < songs.size(); i++) {
-            Entry song = songs.get(i);
-            if (song.getIndex() != i) {
-                song.setIndex(i);
-                changed = true;
+        lock();
+        try {
+            List<Entry> sorted = new ArrayList<>(songs);
+            sorted.sort(Comparator.naturalOrder());
+            boolean moved = false;
+            for (int i = 0; i < sorted.size(); i++) {
+                if (sorted.get(i).getIndex() == i) continue;
+                sorted.set(i, reindex(sorted.get(i), i));
+                moved = true;
             }
+            if (!moved) return;
+            songs = Collections.unmodifiableList(sorted);
+            changed = true;
+            appendonly = false;
+        }
+        finally {
+            unlock();
         }
     }
 
     public void shuffle(int gap) {
-        ShuffleList<Entry> list = new ShuffleList(gap);
-        songs.forEach(song -> list.add(song));
-        songs.clear();
-        while (!list.isEmpty()) {
-            Entry entry = list.getNext();
-            entry.setIndex(songs.size());
-            songs.add(entry);
+        lock();
+        try {
+            ShuffleList<Entry> list = new ShuffleList(gap);
+            songs.forEach(song -> list.add(song));
+            List<Entry> shuffled = new ArrayList<>(songs.size());
+            while (!list.isEmpty()) shuffled.add(reindex(list.getNext(), shuffled.size()));
+            songs = Collections.unmodifiableList(shuffled);
+            changed = true;
+            appendonly = false;
         }
-        changed = true;
+        finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Locks this playlist against changes and writes by other threads. Readers are not blocked.
+     */
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
     }
 
     private Entry setSong(int index, Path path) {
-        Entry entry = new Entry(parent.relativize(path), index);
-        songs.set(index, entry);
-        System.err.format("%s: = %s, %s\n", input.getName(), entry.getFolderString(), entry.getNameString());
+        lock();
+        try {
+            List<Entry> moved = new ArrayList<>(songs);
+            Entry entry = replace(index, path);
+            moved.set(index, entry);
+            songs = Collections.unmodifiableList(moved);
+            return entry;
+        }
+        finally {
+            unlock();
+        }
+    }
+
+    // a moved song keeps the extended info of its entry
+    private Entry replace(int index, Path path) {
+        Entry entry = new Entry(parent.relativize(path), index, songs.get(index).getInfo());
+        context.getLog().format("%s: = %s, %s\n", input.getName(), entry.getFolderString(), entry.getNameString());
         changed = true;
+        appendonly = false;
         return entry;
     }
 
+    // entries of a published snapshot are not changed, so a moved entry is copied
+    private Entry reindex(Entry entry, int index) {
+        if (entry.getIndex() == index) return entry;
+        Entry moved = new Entry(entry);
+        moved.setIndex(index);
+        return moved;
+    }
+
     Entry entryOf(Path relfile, int index) {
-        return new Entry(relfile, index);
+        return new Entry(relfile, index, null);
+    }
+
+    Entry entryOf(Path relfile, int index, String info) {
+        return new Entry(relfile, index, info);
+    }
+
+    /**
+     * Returns the extended info of a song if it is an entry of a playlist.
+     * @param song song
+     * @return info or null
+     */
+    static String infoOf(Song song) {
+        return (song instanceof Entry) ? ((Entry)song).getInfo() : null;
     }
 
     /**
      * Inner class with represents a song.
-     * Holds position and the path relative to the playlist location.
+     * Holds position, the path relative to the playlist location and the extended info (#EXTINF) read from the playlist.
      */
     public class Entry extends Song implements EntryInterface {
 
         private Path relpath;
         private int index;
+        private final String info;
 
-        private Entry(Path relfile, int index) {
-            super(parent.resolve(relfile).normalize());
+        private Entry(Path relfile, int index, String info) {
+            super(context, parent.resolve(relfile).normalize());
             this.relpath = relfile.getParent();
             this.index = index;
+            this.info = info;
         }
 
         public Entry(Entry other) {
             super(other);
             this.relpath = other.relpath;
             this.index = other.index;
+            this.info = other.info;
         }
         protected void rebase(Path newbase) {
             this.relpath = newbase.relativize(getPath()).getParent();
@@ -423,6 +764,23 @@ public class Playlist {
             return index;
         }
 
+        /**
+         * Returns the extended info of the entry: &lt;duration&gt;[ &lt;attributes&gt;],&lt;title&gt;
+         * @return info or null if not known
+         */
+        @Override
+        public String getInfo() {
+            return info;
+        }
+
+        /**
+         * Returns the duration of the extended info.
+         * @return duration in seconds or -1 if not known
+         */
+        public int getDuration() {
+            return PlaylistIO.getDuration(info);
+        }
+
         private void setIndex(int index) {
             this.index = index;
         }
@@ -0,0 +1,50 @@
+package oanavodo.songbase.playlist;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Service provider of playlist types.
+ * Codecs are found by {@link java.util.ServiceLoader}, so a jar on the class path can add playlist types by listing its
+ * codec in META-INF/services/oanavodo.songbase.playlist.PlaylistCodec. If several codecs handle the same type the first
+ * one found is used.
+ * @author Reiner
+ */
+public interface PlaylistCodec {
+
+    /**
+     * Returns the playlist types handled by this codec. The type is the file name ending of a playlist file.
+     * @return
+     */
+    public Set<String> getTypes();
+
+    /**
+     * Creates the IO of a playlist. Only one of path, in and out is given or none for a playlist without IO.
+     * @param path path to playlist file
+     * @param in playlist input stream
+     * @param out playlist output stream
+     * @return
+     * @throws IOException
+     */
+    public PlaylistIO create(Path path, InputStream in, OutputStream out) throws IOException;
+
+    /**
+     * Returns true if playlists of this codec are read and written entry by entry without holding all entries in memory.
+     * Only then conversion of playlists is done without reading the whole playlist first.
+     * @return
+     */
+    public default boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Returns true if entries can be added to the end of a playlist file of this codec without writing it completely.
+     * @return
+     */
+    public default boolean isAppendable() {
+        return false;
+    }
+}
@@ -1,46 +1,77 @@
 package oanavodo.songbase.playlist;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import oanavodo.songbase.Jobs;
+import oanavodo.songbase.Options.Locked;
+import oanavodo.songbase.SongBaseContext;
 
 /**
  * Helper class for reading/writting from/to a playlist.
  * Since there are several playlist formats this is a abstract base class and have to be subclassed
  * by specific playlist type classes which implements fill and save methods.
+ * The playlist type classes are created by the {@link PlaylistCodec} registered for the type.
  * @author Reiner
  */
 public abstract class PlaylistIO {
 
-    @FunctionalInterface
-    private interface Creator {
-        PlaylistIO apply(Path path, InputStream in, OutputStream out) throws IOException;
-    }
-
-    private static final Map<String, Creator> creators = Map.of(
-        "m3u", (path, in, out) -> new M3u(path, in, out),
-        "m3u8", (path, in, out) -> new M3u8(path, in, out)
-    );
+    private static final Map<String, PlaylistCodec> codecs = loadCodecs();
 
     private static final Set<String> songtypes = Set.of("mp3");
 
+    // milliseconds between attempts to get a playlist lock
+    private static final long LOCKWAIT = 200;
+
+    // lines of a playlist which are read into entries by one job
+    private static final int BATCH = 256;
+
     protected Path path;
     protected String name;
     protected InputStream input;
     protected OutputStream output;
     private String type;
+    private PlaylistCodec codec = null;
+    private long size = -1;
+    private long modified = -1;
+    private MessageDigest digest = null;
 
     /**
      * Creates an instance for file IO
@@ -94,15 +125,18 @@ public abstract class PlaylistIO {
     private static PlaylistIO create(Path path, InputStream in, OutputStream out, String type, boolean onesong) {
         final String type1 = (type == null) ? "m3u" : type;
         try {
-            Creator creator = creators.get(type1);
-            if ((creator == null) && onesong && songtypes.contains(type1)) {
-                creator = (p, i, o) -> new OneSong(path);
+            PlaylistCodec codec = codecs.get(type1);
+            PlaylistIO io;
+            if (codec != null) {
+                io = codec.create(path, in, out);
             }
-            if (creator == null) {
+            else if (onesong && songtypes.contains(type1)) {
+                io = new OneSong(path);
+            }
+            else {
                 throw new RuntimeException("Playlist type not supported: " + type1);
             }
-            PlaylistIO io = creator.apply(path, in, out);
-            io.setType(type1);
+            io.setType(type1, codec);
             return io;
         }
         catch (IOException ex) {
@@ -110,6 +144,13 @@ public abstract class PlaylistIO {
         }
     }
 
+    private static Map<String, PlaylistCodec> loadCodecs() {
+        Map<String, PlaylistCodec> found = new HashMap<>();
+        ServiceLoader.load(PlaylistCodec.class, PlaylistIO.class.getClassLoader())
+            .forEach(codec -> codec.getTypes().forEach(type -> found.putIfAbsent(type, codec)));
+        return Collections.unmodifiableMap(found);
+    }
+
     /**
      * Returns true if type of playlist file is supported.
      * @param path playlist file
@@ -125,7 +166,26 @@ public abstract class PlaylistIO {
      * @return
      */
     public static boolean isSupported(String type) {
-        return creators.containsKey(type);
+        return codecs.containsKey(type);
+    }
+
+    /**
+     * Returns true if playlists of a type are read and written entry by entry.
+     * @param type playlist type
+     * @return
+     */
+    public static boolean isStreaming(String type) {
+        PlaylistCodec codec = codecs.get(type);
+        return (codec != null) && codec.isStreaming();
+    }
+
+    /**
+     * Returns true if file is a supported song file.
+     * @param path song file
+     * @return
+     */
+    public static boolean isSong(Path path) {
+        return songtypes.contains(detectType(path).toLowerCase());
     }
 
     /**
@@ -140,21 +200,494 @@ public abstract class PlaylistIO {
         return name;
     }
 
-    private PlaylistIO(Path path, InputStream in, OutputStream out) {
+    protected PlaylistIO(Path path, InputStream in, OutputStream out) {
         this.path = (path != null) ? path.toAbsolutePath() : null;
         this.input = in;
         this.output = out;
         this.name = (path != null) ? this.path.getFileName().toString() : (in != null) ? "<stdin>" : "<stdout>";
     }
 
-    private void setType(String type) {
+    private void setType(String type, PlaylistCodec codec) {
         this.type = type;
+        this.codec = codec;
     }
 
     protected abstract void fill(PlaylistInterface list, boolean onlycheck) throws IOException;
 
     protected abstract void save(PlaylistInterface list) throws IOException;
 
+    /**
+     * Writer for entries of a playlist which are supplied one after the other.
+     * Closing without commit leaves the playlist file unchanged.
+     */
+    protected interface EntryWriter extends Closeable {
+        public void write(EntryInterface entry) throws IOException;
+        public void commit() throws IOException;
+    }
+
+    /**
+     * Entry of a playlist as it is read: location of the song and its extended info.
+     * The extended info has the form of the #EXTINF line of an extended m3u playlist without the tag:
+     * &lt;duration in seconds&gt;[ &lt;attributes&gt;],&lt;title&gt;
+     */
+    protected static class EntryLine {
+        private final String location;
+        private final String info;
+
+        public EntryLine(String location) {
+            this(location, null);
+        }
+
+        public EntryLine(String location, String info) {
+            this.location = location;
+            this.info = info;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        /**
+         * Returns the extended info of the entry.
+         * @return info or null if the playlist has none for the entry
+         */
+        public String getInfo() {
+            return info;
+        }
+    }
+
+    /**
+     * Returns the entry lines of the playlist as they are read, without reading the whole playlist first.
+     * The stream has to be closed.
+     * @return
+     * @throws IOException
+     */
+    protected Stream<EntryLine> lines() throws IOException {
+        throw new RuntimeException("Playlist cannot be read entry by entry: " + name);
+    }
+
+    /**
+     * Opens a writer for the playlist which writes the entries as they are supplied.
+     * @return
+     * @throws IOException
+     */
+    protected EntryWriter openWriter() throws IOException {
+        throw new RuntimeException("Playlist cannot be written entry by entry: " + name);
+    }
+
+    /**
+     * Appends entries to the end of the playlist file.
+     * @param list entries to be appended
+     * @return false if appending is not possible for this playlist and it has to be saved completely
+     * @throws IOException
+     */
+    protected boolean append(PlaylistInterface list) throws IOException {
+        return false;
+    }
+
+    /**
+     * Reads the entries of the playlist lines in a pipeline: lines are decoded in the calling thread, the entries are created
+     * (path resolution, song check) by the jobs in batches and added in the original order.
+     * Within parallel work (e.g. reading all playlists of a folder) the entries are created in the calling thread.
+     * @param source entry lines of the playlist, closed after reading
+     * @param list where entries are added
+     * @param onlycheck whether entries which cannot be created are only reported
+     * @throws IOException
+     */
+    protected void fillLines(Stream<EntryLine> source, PlaylistInterface list, boolean onlycheck) throws IOException {
+        Jobs jobs = list.getJobs();
+        boolean pipelined = (jobs.getParallelism() > 1) && !jobs.isWorker();
+        int ahead = 2 * jobs.getParallelism();
+        Deque<Future<Batch>> pending = new ArrayDeque<>();
+        try (Stream<EntryLine> lines = source) {
+            Iterator<EntryLine> iterator = lines.iterator();
+            List<EntryLine> work = new ArrayList<>(BATCH);
+            while (iterator.hasNext()) {
+                work.add(iterator.next());
+                if ((work.size() < BATCH) && iterator.hasNext()) continue;
+                List<EntryLine> batch = work;
+                work = new ArrayList<>(BATCH);
+                if (!pipelined) {
+                    createEntries(list, batch, onlycheck).addTo(list);
+                    continue;
+                }
+                pending.add(jobs.submit(() -> createEntries(list, batch, onlycheck)));
+                // only a limited number of batches is read ahead
+                if (pending.size() >= ahead) pending.poll().get().addTo(list);
+            }
+            while (!pending.isEmpty()) pending.poll().get().addTo(list);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) throw (RuntimeException)ex.getCause();
+            throw new RuntimeException(ex.getCause().getMessage(), ex.getCause());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Reading playlist interrupted: " + name, ex);
+        }
+        finally {
+            pending.forEach(batch -> batch.cancel(false));
+        }
+    }
+
+    private Batch createEntries(PlaylistInterface list, List<EntryLine> lines, boolean onlycheck) {
+        Batch batch = new Batch(lines.size());
+        for (EntryLine line : lines) {
+            try {
+                batch.entries.add(list.createEntry(Paths.get(line.getLocation()), line.getInfo()));
+            }
+            catch (Exception ex) {
+                if (!onlycheck) throw ex;
+                batch.messages.add(ex.getMessage());
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Returns the duration of an extended info.
+     * @param info extended info of an entry (may be null)
+     * @return duration in seconds or -1 if unknown
+     */
+    protected static int getDuration(String info) {
+        if (info == null) return -1;
+        try {
+            double duration = Double.parseDouble(info.substring(0, durationEnd(info)));
+            return (duration < 0) ? -1 : (int)Math.round(duration);
+        }
+        catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the title of an extended info. Commas within quoted attribute values do not end the attributes.
+     * @param info extended info of an entry (may be null)
+     * @return title or null if there is none
+     */
+    protected static String getInfoTitle(String info) {
+        if (info == null) return null;
+        boolean quoted = false;
+        for (int i = 0; i < info.length(); i++) {
+            char c = info.charAt(i);
+            if (c == '"') quoted = !quoted;
+            if ((c != ',') || quoted) continue;
+            String title = info.substring(i + 1).trim();
+            return title.isEmpty() ? null : title;
+        }
+        return null;
+    }
+
+    /**
+     * Composes an extended info.
+     * @param duration duration in seconds or -1 if unknown
+     * @param title title or null
+     * @return info or null if neither duration nor title are known
+     */
+    protected static String toInfo(int duration, String title) {
+        if ((duration < 0) && (title == null)) return null;
+        return ((duration < 0) ? -1 : duration) + "," + ((title == null) ? "" : title);
+    }
+
+    /**
+     * Replaces the duration of an extended info. Attributes and title are kept.
+     * @param info extended info of an entry
+     * @param duration duration in seconds
+     * @return
+     */
+    protected static String withDuration(String info, int duration) {
+        return duration + info.substring(durationEnd(info));
+    }
+
+    private static int durationEnd(String info) {
+        int end = 0;
+        while ((end < info.length()) && (info.charAt(end) != ',') && !Character.isWhitespace(info.charAt(end))) end++;
+        return end;
+    }
+
+    /**
+     * Returns the temporary file a playlist file is written to before it replaces the playlist file.
+     * @return
+     */
+    protected Path getTemp() {
+        return path.resolveSibling("." + name + ".tmp");
+    }
+
+    /**
+     * Replaces the playlist file by the completely written temporary file.
+     * A playlist file is replaced at once so it is never found half written.
+     * @param temp temporary file
+     * @throws IOException
+     */
+    protected void replaceBy(Path temp) throws IOException {
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Output of a playlist which replaces the playlist file only on commit.
+     * Closing without commit leaves the playlist file unchanged.
+     */
+    protected class Output extends FilterOutputStream {
+        private final Path temp;
+        private boolean committed = false;
+
+        private Output(OutputStream out, Path temp) {
+            super(out);
+            this.temp = temp;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        /**
+         * Completes the playlist. A playlist file is replaced by the written content.
+         * @throws IOException
+         */
+        public void commit() throws IOException {
+            flush();
+            if (temp == null) return;
+            out.close();
+            replaceBy(temp);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if ((temp != null) && !committed) Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Opens the output of the playlist. A playlist file is written to a temporary file first.
+     * @return
+     * @throws IOException
+     */
+    protected Output openOutput() throws IOException {
+        if (output != null) return new Output(output, null);
+        Path temp = getTemp();
+        return new Output(new BufferedOutputStream(Files.newOutputStream(temp)), temp);
+    }
+
+    /**
+     * Appends entries as text lines to the end of the playlist file.
+     * @param cs charset of the playlist file
+     * @param list entries to be appended
+     * @param format text line of an entry
+     * @return false if the playlist is not a file or its last line is not terminated
+     * @throws IOException
+     */
+    protected boolean appendLines(Charset cs, PlaylistInterface list, Function<EntryInterface, String> format) throws IOException {
+        if ((output != null) || (path == null)) return false;
+        // appending to an unterminated last line would join two entries
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > 0) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, length - 1);
+                if (last.get(0) != '\n') return false;
+            }
+        }
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(path, StandardOpenOption.APPEND), cs))) {
+            list.getEntryIterator().forEachRemaining(entry -> out.println(format.apply(entry)));
+            if (out.checkError()) throw new IOException("Cannot append to playlist: " + path.toString());
+        }
+        return true;
+    }
+
+    /**
+     * Returns the fingerprint of the playlist file content read by fill.
+     * @return fingerprint or null if not read from a file
+     */
+    byte[] getFingerprint() {
+        return (digest != null) ? digest.digest() : null;
+    }
+
+    /**
+     * Returns the fingerprint of the content save would write.
+     * @param list entries to be written
+     * @return fingerprint or null if not supported by this playlist type
+     */
+    protected byte[] fingerprint(PlaylistInterface list) {
+        return null;
+    }
+
+    /**
+     * Returns an input stream of the playlist file which computes the fingerprint while reading.
+     * @return
+     * @throws IOException
+     */
+    protected InputStream openFingerprinted() throws IOException {
+        digest = newDigest();
+        return new DigestInputStream(Files.newInputStream(path), digest);
+    }
+
+    protected static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Forces a written playlist file to the storage device.
+     * @param path playlist file
+     */
+    static void sync(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Cannot sync playlist: " + path.toString(), ex);
+        }
+    }
+
+    /**
+     * Takes the advisory lock of a playlist file for an operation.
+     * The lock is held on the sidecar file '.<name>.lock', so the playlist file itself can still be replaced. Only songbase
+     * runs respect the lock. It is kept until it is released by {@link #unlock(SongBaseContext, Path)}, which also removes
+     * the sidecar file.
+     * @param context context of the operation
+     * @param path playlist file
+     * @return true if the lock has been taken, false if it is already held by the operation
+     */
+    static boolean lock(SongBaseContext context, Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        Path sidecar = lockFile(key);
+        Map<Path, FileLock> locks = context.getLocks();
+        if (locks.containsKey(sidecar)) return false;
+        boolean waiting = false;
+        try {
+            while (true) {
+                Object file = createLockFile(sidecar);
+                if (file == null) continue;
+                FileChannel channel;
+                try {
+                    channel = FileChannel.open(sidecar, StandardOpenOption.WRITE);
+                }
+                catch (NoSuchFileException ex) {
+                    continue;
+                }
+                boolean locked = false;
+                try {
+                    // the lock file may have been replaced before it was opened
+                    if (!file.equals(fileKey(sidecar))) continue;
+                    FileLock lock = tryLock(channel);
+                    // the previous owner removes the lock file before it releases the lock
+                    if ((lock != null) && file.equals(fileKey(sidecar))) {
+                        locks.put(sidecar, lock);
+                        locked = true;
+                        return true;
+                    }
+                    // lock may have been taken by another thread of the same operation
+                    if (locks.containsKey(sidecar)) return false;
+                    if (lock != null) continue;
+                    if (context.getOptions().getLocked() != Locked.WAIT) throw new PlaylistLockedException("Playlist is locked by another run: " + key.toString());
+                    if (!waiting) context.getLog().format("PLAYLIST: waiting for lock of %s\n", key.getFileName().toString());
+                    waiting = true;
+                    Thread.sleep(LOCKWAIT);
+                }
+                finally {
+                    if (!locked) channel.close();
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Waiting for lock interrupted: " + key.toString(), ex);
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Cannot lock playlist: " + key.toString(), ex);
+        }
+    }
+
+    /**
+     * Releases the advisory lock of a playlist file if it is held by the operation and removes the sidecar file.
+     * @param context context of the operation
+     * @param path playlist file
+     */
+    static void unlock(SongBaseContext context, Path path) {
+        context.releaseLock(lockFile(path.toAbsolutePath().normalize()));
+    }
+
+    private static Path lockFile(Path key) {
+        return key.resolveSibling("." + key.getFileName().toString() + ".lock");
+    }
+
+    /**
+     * Creates the lock file if it does not exist.
+     * @return identity of the lock file or null if it has been removed in between
+     */
+    private static Object createLockFile(Path sidecar) throws IOException {
+        try {
+            Files.createFile(sidecar);
+        }
+        catch (FileAlreadyExistsException ex) {}
+        return fileKey(sidecar);
+    }
+
+    // only file attributes are read, another open channel of the lock file would release the lock on close
+    private static Object fileKey(Path sidecar) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(sidecar, BasicFileAttributes.class);
+            // without file keys a replaced lock file cannot be detected
+            return (attrs.fileKey() != null) ? attrs.fileKey() : sidecar;
+        }
+        catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        }
+        catch (OverlappingFileLockException ex) {
+            // held by another operation of this process
+            return null;
+        }
+    }
+
+    /**
+     * Remembers size and modification time of the playlist file.
+     */
+    void stamp() {
+        size = -1;
+        if (path == null) return;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            size = attrs.size();
+            modified = attrs.lastModifiedTime().toMillis();
+        }
+        catch (IOException ex) {
+            size = -1;
+        }
+    }
+
+    /**
+     * Returns true if the playlist file has not been changed since the last call of {@link #stamp()}.
+     * @return
+     */
+    boolean isUnchanged() {
+        if ((path == null) || (size == -1)) return false;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return (attrs.size() == size) && (attrs.lastModifiedTime().toMillis() == modified);
+        }
+        catch (IOException ex) {
+            return false;
+        }
+    }
+
     public Path getPath() {
         return path;
     }
@@ -187,6 +720,30 @@ public abstract class PlaylistIO {
         return (this instanceof OneSong);
     }
 
+    /**
+     * Returns the codec of the playlist type.
+     * @return codec or null for the intern one song playlist
+     */
+    public PlaylistCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Returns true if the playlist is read and written entry by entry.
+     * @return
+     */
+    public boolean isStreaming() {
+        return (codec != null) && codec.isStreaming();
+    }
+
+    /**
+     * Returns true if entries can be appended to the playlist file.
+     * @return
+     */
+    public boolean isAppendable() {
+        return (codec != null) && codec.isAppendable();
+    }
+
     @Override
     public int hashCode() {
         int hash = 5;
@@ -228,11 +785,11 @@ public abstract class PlaylistIO {
         @Override
         protected void fill(PlaylistInterface list, boolean onlycheck) throws IOException {
             try {
-                list.addEntry(list.createEntry(getPath().getFileName()));
+                list.addEntry(list.createEntry(getPath().getFileName(), null));
             }
             catch (Exception ex) {
                 if (!onlycheck) throw ex;
-                System.err.println(ex.getMessage());
+                list.getLog().println(ex.getMessage());
             }
         }
         @Override
@@ -242,76 +799,21 @@ public abstract class PlaylistIO {
     }
 
     /**
-     * Intern subclass represents m3u (iso8859-1) format.
-     * Currently #EXT lines are not supported
+     * Entries created from a batch of lines together with the messages of lines which could not be added.
+     * Messages are printed when the batch is added, so they appear in playlist order.
      */
-    private static class M3u extends PlaylistIO {
-
-        protected M3u(Path path, InputStream in, OutputStream out) throws IOException {
-            super(path, in, out);
-        }
-
-        @Override
-        protected void fill(PlaylistInterface list, boolean onlycheck) throws IOException {
-            fillwithcs(StandardCharsets.ISO_8859_1, list, onlycheck);
-        }
-
-        protected void fillwithcs(Charset cs, PlaylistInterface list, boolean onlycheck) throws IOException {
-            Reader backend = (input == null) ? new FileReader(path.toFile(), cs) : new InputStreamReader(input, cs);
-            BufferedReader reader = (cs == StandardCharsets.UTF_8) ? new UTF8BufferedReader(backend) : new BufferedReader(backend);
-            try (reader) {
-                reader.lines().forEach(line -> {
-                    line = line.trim();
-                    if (line.isEmpty()) return;
-                    if (line.startsWith("#")) return;
-                    line = line.replace("\\", "/");
-                    line = line.replace("%20", " ");
-                    try {
-                        list.addEntry(list.createEntry(Paths.get(line)));
-                    }
-                    catch (Exception ex) {
-                        if (!onlycheck) throw ex;
-                        System.err.println(ex.getMessage());
-                    }
-                });
-            }
-        }
+    private static class Batch {
+        private final List<EntryInterface> entries;
+        private final List<String> messages = new ArrayList<>();
 
-        @Override
-        protected void save(PlaylistInterface list) throws IOException {
-            savewithcs(StandardCharsets.ISO_8859_1, list) ;
+        private Batch(int size) {
+            this.entries = new ArrayList<>(size);
         }
 
-        protected void savewithcs(Charset cs, PlaylistInterface list) throws IOException {
-            PrintWriter out = (output == null) ? new PrintWriter(path.toFile(), cs) : new PrintWriter(output, true, cs);
-            try (out) {
-                list.getEntryIterator().forEachRemaining(song -> printEntry(out, song));
-            }
-        }
-
-        private void printEntry(PrintWriter out, EntryInterface entry) {
-            out.println(entry.getEntryString());
+        private void addTo(PlaylistInterface list) {
+            messages.forEach(message -> list.getLog().println(message));
+            entries.forEach(entry -> list.addEntry(entry));
         }
     }
 
-    /**
-     * Intern subclass represents m3u8 (utt-8) format.
-     * Currently #EXT lines are not supported
-     */
-    private static class M3u8 extends M3u {
-
-        protected M3u8(Path path, InputStream in, OutputStream out) throws IOException {
-            super(path, in, out);
-        }
-
-        @Override
-        protected void fill(PlaylistInterface list, boolean onlycheck) throws IOException {
-            fillwithcs(StandardCharsets.UTF_8, list, onlycheck);
-        }
-
-        @Override
-        protected void save(PlaylistInterface list) throws IOException {
-            savewithcs(StandardCharsets.UTF_8, list) ;
-        }
-    }
 }
@@ -1,10 +1,14 @@
 package oanavodo.songbase.playlist;
 
+import java.io.PrintStream;
 import java.nio.file.Path;
 import java.util.Iterator;
+import oanavodo.songbase.Jobs;
 
 public interface PlaylistInterface {
-    public EntryInterface createEntry(Path path);
+    public EntryInterface createEntry(Path path, String info);
     public void addEntry(EntryInterface entry);
     public Iterator<? extends EntryInterface> getEntryIterator();
+    public PrintStream getLog();
+    public Jobs getJobs();
 }
@@ -2,44 +2,74 @@ package oanavodo.songbase.playlist;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import oanavodo.songbase.Options;
+import oanavodo.songbase.Options.Locked;
 import oanavodo.songbase.Song;
+import oanavodo.songbase.SongBaseContext;
 
 /**
  * Represents a (possibly empty) list of playlists.
  * It allows to update a change in song name or path in all affected playlists.
+ * The list can be used by several threads. Adding and removing playlists replaces the list as a whole, so readers
+ * are never blocked.
  * @author Reiner
  */
 public class PlaylistList {
 
-    protected static Options options = new Options();
-
-    public static void setOptions(Options options) {
-        PlaylistList.options = options;
-    }
-    private Map<Path, Playlist> lists;
-    private Path base;
+    private final SongBaseContext context;
+    private volatile Map<Path, Playlist> lists;
+    private volatile Path base;
 
     /**
      * Instantiates a playlist factory.
-     * If walk is true all playlists found beyond the base folder are added to this factory.
+     * If walk is true all playlists found beyond the base folder are read in parallel and added to this factory.
      * If walk is false an empty factory is created. Playlists has to be added.
+     * @param context context of the operation
      * @param base base folder of factory
      * @param walk whether playlists should be added
      */
-    public PlaylistList(Path base, boolean walk) {
-        this.lists = new HashMap<>();
+    public PlaylistList(SongBaseContext context, Path base, boolean walk) {
+        this.context = context;
+        this.lists = Map.of();
         this.base = (base != null) ? base.toAbsolutePath() : null;
         if (walk && (base != null)) {
             try {
                 if (!Files.isDirectory(this.base)) throw new RuntimeException("Folder not found: " + this.base.toString());
-                Files.walk(this.base).filter(path -> PlaylistIO.isSupported(path)).forEach(path -> {
-                    Playlist list = Playlist.of(path);
-                    lists.put(list.getPath(), list);
-                });
+                List<Future<Playlist>> results;
+                try (Stream<Path> paths = Files.walk(this.base)) {
+                    results = paths.filter(path -> PlaylistIO.isSupported(path))
+                        .map(path -> context.getJobs().submit(() -> Playlist.of(context, path)))
+                        .collect(Collectors.toList());
+                }
+                Map<Path, Playlist> found = new LinkedHashMap<>();
+                for (Future<Playlist> result : results) {
+                    Playlist list = result.get();
+                    found.put(list.getPath(), list);
+                }
+                lists = Collections.unmodifiableMap(found);
+            }
+            catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) throw (RuntimeException)ex.getCause();
+                throw new RuntimeException(ex.getCause().getMessage(), ex.getCause());
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Reading playlists interrupted", ex);
             }
             catch (RuntimeException ex) {
                 throw ex;
@@ -50,6 +80,84 @@ public class PlaylistList {
         }
     }
 
+    /**
+     * Changes all playlists found beyond the base folder one after the other.
+     * Each playlist is read, changed, written if changed and dropped, so only the playlists in work are kept in memory.
+     * Up to jobs option playlists are in work at the same time.
+     * Each playlist is locked against other runs before it is read and until it is written, so with lock policy 'wait'
+     * the change is applied to the content written by the other run.
+     * Playlists which could not be changed are reported and do not stop the changes of the other playlists.
+     * @param context context of the operation
+     * @param base base folder
+     * @param filter playlists which should be changed
+     * @param change change applied to each playlist
+     * @param sorted whether changed playlists are sorted before writing
+     */
+    public static void forEach(SongBaseContext context, Path base, Predicate<Path> filter, Consumer<Playlist> change, boolean sorted) {
+        Path root = base.toAbsolutePath();
+        if (!Files.isDirectory(root)) throw new RuntimeException("Folder not found: " + root.toString());
+        Semaphore inwork = new Semaphore(context.getJobs().getParallelism());
+        Map<Path, Future<?>> results = new LinkedHashMap<>();
+        List<Path> failed = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.filter(path -> PlaylistIO.isSupported(path) && filter.test(path)).forEach(path -> {
+                inwork.acquireUninterruptibly();
+                try {
+                    results.put(path, context.getJobs().submit(() -> {
+                        boolean locked = false;
+                        try {
+                            if (!context.getOptions().isDryrun()) {
+                                try {
+                                    locked = PlaylistIO.lock(context, path);
+                                }
+                                catch (PlaylistLockedException ex) {
+                                    if (context.getOptions().getLocked() != Locked.SKIP) throw ex;
+                                    context.getLog().format("PLAYLIST: locked by another run, not changed %s\n", path.getFileName().toString());
+                                    return;
+                                }
+                            }
+                            Playlist list = Playlist.of(context, path);
+                            change.accept(list);
+                            list.update(sorted);
+                        }
+                        finally {
+                            if (locked) PlaylistIO.unlock(context, path);
+                            inwork.release();
+                        }
+                    }));
+                }
+                catch (RuntimeException ex) {
+                    inwork.release();
+                    throw ex;
+                }
+            });
+            for (Map.Entry<Path, Future<?>> result : results.entrySet()) {
+                try {
+                    result.getValue().get();
+                }
+                catch (ExecutionException ex) {
+                    context.getLog().format("PLAYLIST: Cannot change %s: %s\n", result.getKey().toString(), ex.getCause().getMessage());
+                    failed.add(result.getKey());
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Change of playlists interrupted", ex);
+        }
+        catch (RuntimeException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new RuntimeException(ex.getMessage(), ex.getCause());
+        }
+        if (!failed.isEmpty()) throw new RuntimeException("Not all playlists could be changed: " + failed.size());
+    }
+
+    public SongBaseContext getContext() {
+        return context;
+    }
+
     public Path getBase() {
         return base;
     }
@@ -58,13 +166,17 @@ public class PlaylistList {
         return lists.get(path);
     }
 
-    public void addPlaylist(Playlist list) {
-        lists.put(list.getPath(), list);
+    public synchronized void addPlaylist(Playlist list) {
+        Map<Path, Playlist> added = new LinkedHashMap<>(lists);
+        added.put(list.getPath(), list);
+        lists = Collections.unmodifiableMap(added);
         if (base == null) base = list.getBase();
     }
 
-    public void removePlaylist(Playlist list) {
-        lists.remove(list.getPath());
+    public synchronized void removePlaylist(Playlist list) {
+        Map<Path, Playlist> removed = new LinkedHashMap<>(lists);
+        removed.remove(list.getPath());
+        lists = Collections.unmodifiableMap(removed);
     }
 
     public Stream<Playlist> stream() {
@@ -72,10 +184,96 @@ public class PlaylistList {
     }
 
     public void move(Song prev, Song now) {
-        lists.values().forEach(list -> list.move(prev, now));
+        change(list -> true, list -> list.move(prev, now));
+    }
+
+    /**
+     * Changes several playlists as one update.
+     * All selected playlists are locked before the first change, so changes of other threads on the same playlists are
+     * done completely before or after this update. Readers are not blocked.
+     * @param filter playlists which should be changed
+     * @param change change applied to each playlist
+     */
+    public void change(Predicate<Playlist> filter, Consumer<Playlist> change) {
+        // always locked in path order, so two updates cannot wait for each other
+        List<Playlist> selected = lists.values().stream()
+            .filter(filter)
+            .sorted(Comparator.comparing(list -> String.valueOf(list.getPath())))
+            .collect(Collectors.toList());
+        Set<Playlist> locked = new HashSet<>();
+        try {
+            selected.forEach(list -> {
+                list.lock();
+                locked.add(list);
+            });
+            lists.values().stream().filter(list -> locked.contains(list)).forEach(change);
+        }
+        finally {
+            locked.forEach(list -> list.unlock());
+        }
     }
 
+    /**
+     * Writes all changed playlists.
+     * The log lines are written in playlist order first, then the playlists are written in parallel (up to jobs option).
+     * With sync option the written files are forced to the storage device together after all writes.
+     * Playlists which could not be written (e.g. locked by another run) do not stop writing the other playlists.
+     * @param sorted whether playlists are sorted before writing
+     */
     public void update(boolean sorted) {
-        lists.values().forEach(list -> list.update(sorted));
+        Map<Path, String> failed = new LinkedHashMap<>();
+        update(sorted, failed, new ArrayList<>());
+        if (!failed.isEmpty()) throw new RuntimeException("Not all playlists could be written: " + failed.size());
+    }
+
+    /**
+     * Writes all changed playlists like {@link #update(boolean)}, but reports the playlists which have not been written
+     * instead of failing.
+     * @param sorted whether playlists are sorted before writing
+     * @param failed receives the reason by playlist path for each playlist which could not be written
+     * @param skipped receives the playlists which have not been written because of the lock policy 'skip'
+     */
+    public void update(boolean sorted, Map<Path, String> failed, List<Path> skipped) {
+        Map<Playlist, BooleanSupplier> writers = new LinkedHashMap<>();
+        for (Playlist list : lists.values()) {
+            if (!list.isChanged()) continue;
+            try {
+                BooleanSupplier writer = list.prepareWrite(sorted);
+                if (writer != null) writers.put(list, writer);
+            }
+            catch (RuntimeException ex) {
+                context.getLog().format("PLAYLIST: Cannot write %s: %s\n", list.getName(), ex.getMessage());
+                failed.put(list.getPath(), ex.getMessage());
+            }
+        }
+        if (writers.isEmpty()) return;
+
+        List<Path> written = new ArrayList<>();
+        try {
+            Map<Playlist, Future<Boolean>> results = new LinkedHashMap<>();
+            writers.forEach((list, writer) -> results.put(list, context.getJobs().submit(writer::getAsBoolean)));
+            for (Map.Entry<Playlist, Future<Boolean>> result : results.entrySet()) {
+                try {
+                    if (!result.getValue().get()) skipped.add(result.getKey().getPath());
+                    else if (result.getKey().getOutputPath() != null) written.add(result.getKey().getOutputPath());
+                }
+                catch (ExecutionException ex) {
+                    context.getLog().format("PLAYLIST: Cannot write %s: %s\n", result.getKey().getName(), ex.getCause().getMessage());
+                    failed.put(result.getKey().getPath(), ex.getCause().getMessage());
+                }
+            }
+            if (context.getOptions().isSync()) {
+                List<Future<?>> syncs = new ArrayList<>();
+                written.forEach(path -> syncs.add(context.getJobs().submit(() -> PlaylistIO.sync(path))));
+                for (Future<?> sync : syncs) sync.get();
+            }
+        }
+        catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause().getMessage(), ex.getCause());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Writing playlists interrupted", ex);
+        }
     }
 }
@@ -0,0 +1,14 @@
+package oanavodo.songbase.playlist;
+
+/**
+ * Thrown if a playlist cannot be loaded for change because another songbase run holds its lock.
+ * @author Reiner
+ */
+public class PlaylistLockedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public PlaylistLockedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,115 @@
+package oanavodo.songbase.playlist;
+
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import oanavodo.songbase.Options.Check;
+import oanavodo.songbase.playlist.Playlist.Entry;
+
+/**
+ * Publishes the entries of a playlist file as they are read.
+ * Lines are only read on demand of the subscriber, so a playlist of any size is processed with the buffer size
+ * the subscriber requests. Each subscriber reads the playlist file on its own. Entries are delivered on the thread
+ * which requests them.
+ * @author Reiner
+ */
+public class PlaylistPublisher implements Flow.Publisher<Entry> {
+
+    private final Playlist list;
+    private final PlaylistIO input;
+
+    PlaylistPublisher(Playlist list, PlaylistIO input) {
+        this.list = list;
+        this.input = input;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Entry> subscriber) {
+        subscriber.onSubscribe(new EntrySubscription(subscriber));
+    }
+
+    private class EntrySubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Entry> subscriber;
+        private final AtomicLong demand = new AtomicLong(0);
+        // only one thread emits at a time, requests from other threads or from onNext are picked up by it
+        private final AtomicInteger work = new AtomicInteger(0);
+        private volatile boolean cancelled = false;
+        private boolean done = false;
+        private Stream<PlaylistIO.EntryLine> lines = null;
+        private Iterator<PlaylistIO.EntryLine> iterator = null;
+        private int index = 0;
+
+        private EntrySubscription(Flow.Subscriber<? super Entry> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                drain();
+                subscriber.onError(new IllegalArgumentException("Requested number of entries must be positive: " + n));
+                return;
+            }
+            demand.accumulateAndGet(n, (current, more) -> (current + more < 0) ? Long.MAX_VALUE : current + more);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (work.getAndIncrement() != 0) return;
+            do {
+                emit();
+            } while (work.decrementAndGet() != 0);
+        }
+
+        private void emit() {
+            if (done) return;
+            try {
+                if (lines == null) {
+                    lines = input.lines();
+                    iterator = lines.iterator();
+                }
+                boolean onlycheck = (list.getContext().getOptions().getCheck() == Check.ONLY);
+                while (!cancelled && (demand.get() > 0)) {
+                    if (!iterator.hasNext()) {
+                        finish();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    Entry entry;
+                    try {
+                        PlaylistIO.EntryLine line = iterator.next();
+                        entry = list.entryOf(Paths.get(line.getLocation()), index, line.getInfo());
+                    }
+                    catch (RuntimeException ex) {
+                        if (!onlycheck) throw ex;
+                        list.getContext().getLog().println(ex.getMessage());
+                        continue;
+                    }
+                    index++;
+                    demand.decrementAndGet();
+                    subscriber.onNext(entry);
+                }
+                if (cancelled) finish();
+            }
+            catch (Exception ex) {
+                finish();
+                subscriber.onError(ex);
+            }
+        }
+
+        private void finish() {
+            done = true;
+            if (lines != null) lines.close();
+        }
+    }
+}
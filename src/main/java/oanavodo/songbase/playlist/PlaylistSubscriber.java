@@ -0,0 +1,101 @@
+package oanavodo.songbase.playlist;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import oanavodo.songbase.Song;
+
+/**
+ * Writes songs to a playlist as they are received.
+ * At most {@value #BATCH} songs are requested ahead, so the songs are never collected in memory. A playlist file is
+ * only replaced if all songs have been received. The completion tells the number of written entries.
+ * @author Reiner
+ */
+public class PlaylistSubscriber implements Flow.Subscriber<Song> {
+
+    private static final int BATCH = 256;
+
+    private final Playlist list;
+    private final PlaylistIO output;
+    private final CompletableFuture<Integer> completion = new CompletableFuture<>();
+    private Flow.Subscription subscription = null;
+    private PlaylistIO.EntryWriter writer = null;
+    private int written = 0;
+
+    PlaylistSubscriber(Playlist list, PlaylistIO output) {
+        this.list = list;
+        this.output = output;
+    }
+
+    /**
+     * Returns the completion of writing. It fails if the playlist could not be written or the publisher failed.
+     * @return number of written entries
+     */
+    public CompletableFuture<Integer> getCompletion() {
+        return completion;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        try {
+            writer = output.openWriter();
+        }
+        catch (IOException | RuntimeException ex) {
+            subscription.cancel();
+            completion.completeExceptionally(ex);
+            return;
+        }
+        subscription.request(BATCH);
+    }
+
+    @Override
+    public void onNext(Song song) {
+        if (completion.isDone()) return;
+        try {
+            writer.write(list.entryOf(list.getBase().relativize(song.getPath()), written, Playlist.infoOf(song)));
+        }
+        catch (IOException | RuntimeException ex) {
+            subscription.cancel();
+            abort(ex);
+            return;
+        }
+        written++;
+        // the next songs are requested while half of the batch is still outstanding
+        if ((written % (BATCH / 2)) == 0) subscription.request(BATCH / 2);
+    }
+
+    @Override
+    public void onError(Throwable failure) {
+        abort(failure);
+    }
+
+    @Override
+    public void onComplete() {
+        if (completion.isDone()) return;
+        try {
+            writer.commit();
+            writer.close();
+        }
+        catch (IOException | RuntimeException ex) {
+            abort(ex);
+            return;
+        }
+        completion.complete(written);
+    }
+
+    private void abort(Throwable failure) {
+        if (completion.isDone()) return;
+        try {
+            if (writer != null) writer.close();
+        }
+        catch (IOException ex) {
+            failure.addSuppressed(ex);
+        }
+        completion.completeExceptionally(failure);
+    }
+}
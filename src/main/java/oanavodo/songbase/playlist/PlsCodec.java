@@ -0,0 +1,174 @@
+package oanavodo.songbase.playlist;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Codec of the pls (utf-8) playlist type.
+ * @author Reiner
+ */
+public class PlsCodec implements PlaylistCodec {
+
+    @Override
+    public Set<String> getTypes() {
+        return Set.of("pls");
+    }
+
+    @Override
+    public PlaylistIO create(Path path, InputStream in, OutputStream out) throws IOException {
+        return new Pls(path, in, out);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    /**
+     * Subclass represents pls format.
+     * Entries are taken from the FileN keys in the order they appear. The TitleN and LengthN keys of an entry are kept as
+     * its extended info, they are expected next to the FileN key. The number of entries is written after the entries,
+     * so a playlist is written without knowing it in advance.
+     */
+    static class Pls extends PlaylistIO {
+
+        private static final Pattern KEY = Pattern.compile("(File|Title|Length)([0-9]+)\\s*=(.*)", Pattern.CASE_INSENSITIVE);
+
+        protected Pls(Path path, InputStream in, OutputStream out) throws IOException {
+            super(path, in, out);
+        }
+
+        @Override
+        protected void fill(PlaylistInterface list, boolean onlycheck) throws IOException {
+            fillLines(lines(), list, onlycheck);
+        }
+
+        @Override
+        protected Stream<EntryLine> lines() throws IOException {
+            BufferedReader reader = new UTF8BufferedReader(new InputStreamReader((input == null) ? openFingerprinted() : input, StandardCharsets.UTF_8));
+            Iterator<Matcher> keys = reader.lines()
+                .map(line -> KEY.matcher(line.trim()))
+                .filter(Matcher::matches)
+                .iterator();
+            Iterator<EntryLine> entries = new Iterator<>() {
+                private EntryLine next = null;
+                private Matcher pending = null;
+
+                @Override
+                public boolean hasNext() {
+                    // keys are collected until the next entry number appears
+                    while ((next == null) && ((pending != null) || keys.hasNext())) {
+                        String number = null;
+                        String file = null;
+                        String title = null;
+                        int length = -1;
+                        while ((pending != null) || keys.hasNext()) {
+                            Matcher key = (pending != null) ? pending : keys.next();
+                            pending = null;
+                            if ((number != null) && !number.equals(key.group(2))) {
+                                pending = key;
+                                break;
+                            }
+                            number = key.group(2);
+                            String value = key.group(3).trim();
+                            switch (key.group(1).toLowerCase()) {
+                            case "file":
+                                file = value.replace("\\", "/");
+                                break;
+                            case "title":
+                                if (!value.isEmpty()) title = value;
+                                break;
+                            default:
+                                try {
+                                    length = Integer.parseInt(value);
+                                }
+                                catch (NumberFormatException ex) {
+                                    length = -1;
+                                }
+                            }
+                        }
+                        if ((file != null) && !file.isEmpty()) next = new EntryLine(file, toInfo(length, title));
+                    }
+                    return (next != null);
+                }
+
+                @Override
+                public EntryLine next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    EntryLine entry = next;
+                    next = null;
+                    return entry;
+                }
+            };
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    }
+                    catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+        }
+
+        @Override
+        protected void save(PlaylistInterface list) throws IOException {
+            try (EntryWriter out = openWriter()) {
+                Iterator<? extends EntryInterface> entries = list.getEntryIterator();
+                while (entries.hasNext()) out.write(entries.next());
+                out.commit();
+            }
+        }
+
+        @Override
+        protected EntryWriter openWriter() throws IOException {
+            Output target = openOutput();
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8));
+            out.println("[playlist]");
+            return new EntryWriter() {
+                private int count = 0;
+
+                @Override
+                public void write(EntryInterface entry) {
+                    count++;
+                    out.format("File%d=%s%n", count, entry.getEntryString());
+                    if (entry.getInfo() == null) return;
+                    String title = getInfoTitle(entry.getInfo());
+                    if (title != null) out.format("Title%d=%s%n", count, title);
+                    out.format("Length%d=%d%n", count, getDuration(entry.getInfo()));
+                }
+
+                @Override
+                public void commit() throws IOException {
+                    out.format("NumberOfEntries=%d%n", count);
+                    out.println("Version=2");
+                    out.flush();
+                    if (out.checkError()) throw new IOException("Cannot write playlist: " + name);
+                    target.commit();
+                }
+
+                @Override
+                public void close() {
+                    out.close();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package oanavodo.songbase.playlist;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Codec of the sbpl playlist type, a compact binary format of songbase which is loaded without line parsing.
+ * The entries are collected before writing, so the codec is not streaming.
+ * @author Reiner
+ */
+public class SbplCodec implements PlaylistCodec {
+
+    @Override
+    public Set<String> getTypes() {
+        return Set.of("sbpl");
+    }
+
+    @Override
+    public PlaylistIO create(Path path, InputStream in, OutputStream out) throws IOException {
+        return new Sbpl(path, in, out);
+    }
+
+    /**
+     * Subclass represents the compact binary sbpl format.
+     * Layout (big endian): magic "SBPL", version byte, folder dictionary (count, each folder as length prefixed utf-8 bytes),
+     * entries (count, each as folder index, length prefixed utf-8 name bytes and length prefixed utf-8 extended info bytes
+     * which are empty if there is no info), crc32 of all preceding bytes. Version 1 files have no extended info.
+     * The whole file is read at once and the entries are taken from the buffer without any line decoding.
+     */
+    static class Sbpl extends PlaylistIO {
+
+        private static final byte[] MAGIC = "SBPL".getBytes(StandardCharsets.US_ASCII);
+        private static final int VERSION = 2;
+
+        protected Sbpl(Path path, InputStream in, OutputStream out) throws IOException {
+            super(path, in, out);
+        }
+
+        @Override
+        protected void fill(PlaylistInterface list, boolean onlycheck) throws IOException {
+            fillLines(lines(), list, onlycheck);
+        }
+
+        @Override
+        protected Stream<EntryLine> lines() throws IOException {
+            byte[] content;
+            try (InputStream in = (input == null) ? openFingerprinted() : input) {
+                content = in.readAllBytes();
+            }
+            return decode(content).stream();
+        }
+
+        private List<EntryLine> decode(byte[] content) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            try {
+                byte[] magic = new byte[MAGIC.length];
+                buffer.get(magic);
+                if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a sbpl playlist: " + name);
+                int version = buffer.get();
+                if ((version < 1) || (version > VERSION)) throw new IOException("Sbpl version not supported: " + version + ", " + name);
+                CRC32 crc = new CRC32();
+                crc.update(content, 0, content.length - Integer.BYTES);
+                if ((int)crc.getValue() != buffer.getInt(content.length - Integer.BYTES)) throw new IOException("Sbpl playlist is corrupted: " + name);
+                String[] folders = new String[buffer.getInt()];
+                for (int i = 0; i < folders.length; i++) {
+                    folders[i] = getString(buffer);
+                    if (!folders[i].isEmpty()) folders[i] += "/";
+                }
+                int count = buffer.getInt();
+                List<EntryLine> entries = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    String location = folders[buffer.getInt()] + getString(buffer);
+                    String info = (version > 1) ? getString(buffer) : "";
+                    entries.add(new EntryLine(location, info.isEmpty() ? null : info));
+                }
+                return entries;
+            }
+            catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException ex) {
+                throw new IOException("Sbpl playlist is truncated: " + name);
+            }
+        }
+
+        private String getString(ByteBuffer buffer) {
+            int length = Short.toUnsignedInt(buffer.getShort());
+            String string = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return string;
+        }
+
+        private byte[] encode(Iterator<? extends EntryInterface> entries) throws IOException {
+            Map<String, Integer> folders = new LinkedHashMap<>();
+            ByteArrayOutputStream names = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(names);
+            int count = 0;
+            while (entries.hasNext()) {
+                EntryInterface entry = entries.next();
+                String folder = entry.getFolderString();
+                Integer index = folders.get(folder);
+                if (index == null) {
+                    index = folders.size();
+                    folders.put(folder, index);
+                }
+                out.writeInt(index);
+                putString(out, entry.getNameString());
+                putString(out, (entry.getInfo() != null) ? entry.getInfo() : "");
+                count++;
+            }
+            ByteArrayOutputStream content = new ByteArrayOutputStream(names.size() + 64 * folders.size() + 32);
+            out = new DataOutputStream(content);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(folders.size());
+            for (String folder : folders.keySet()) putString(out, folder);
+            out.writeInt(count);
+            names.writeTo(out);
+            CRC32 crc = new CRC32();
+            crc.update(content.toByteArray());
+            out.writeInt((int)crc.getValue());
+            return content.toByteArray();
+        }
+
+        private void putString(DataOutputStream out, String string) throws IOException {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) throw new IOException("Entry too long for sbpl playlist: " + string);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        protected void save(PlaylistInterface list) throws IOException {
+            try (EntryWriter out = openWriter()) {
+                Iterator<? extends EntryInterface> entries = list.getEntryIterator();
+                while (entries.hasNext()) out.write(entries.next());
+                out.commit();
+            }
+        }
+
+        /**
+         * Entries are collected and the playlist is encoded on commit, since the dictionary precedes the entries.
+         */
+        @Override
+        protected EntryWriter openWriter() throws IOException {
+            List<EntryInterface> entries = new ArrayList<>();
+            Output target = openOutput();
+            return new EntryWriter() {
+                @Override
+                public void write(EntryInterface entry) {
+                    entries.add(entry);
+                }
+
+                @Override
+                public void commit() throws IOException {
+                    target.write(encode(entries.iterator()));
+                    target.commit();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    target.close();
+                }
+            };
+        }
+
+        @Override
+        protected byte[] fingerprint(PlaylistInterface list) {
+            try {
+                return newDigest().digest(encode(list.getEntryIterator()));
+            }
+            catch (IOException ex) {
+                return null;
+            }
+        }
+    }
+}
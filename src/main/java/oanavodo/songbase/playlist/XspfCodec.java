@@ -0,0 +1,270 @@
+package oanavodo.songbase.playlist;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Codec of the xspf playlist type.
+ * @author Reiner
+ */
+public class XspfCodec implements PlaylistCodec {
+
+    @Override
+    public Set<String> getTypes() {
+        return Set.of("xspf");
+    }
+
+    @Override
+    public PlaylistIO create(Path path, InputStream in, OutputStream out) throws IOException {
+        return new Xspf(path, in, out);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    /**
+     * Subclass represents xspf format.
+     * The XML is read and written as stream (StAX), so tracks are handled one after the other. Of each track only the
+     * first location is used. Locations are URIs, relative ones are resolved against the playlist folder.
+     * Title and duration of a track are kept as extended info of the entry.
+     */
+    static class Xspf extends PlaylistIO {
+
+        private static final String NAMESPACE = "http://xspf.org/ns/0/";
+        private static final String NEWLINE = System.lineSeparator();
+
+        protected Xspf(Path path, InputStream in, OutputStream out) throws IOException {
+            super(path, in, out);
+        }
+
+        @Override
+        protected void fill(PlaylistInterface list, boolean onlycheck) throws IOException {
+            fillLines(lines(), list, onlycheck);
+        }
+
+        @Override
+        protected Stream<EntryLine> lines() throws IOException {
+            InputStream in = (input == null) ? openFingerprinted() : input;
+            XMLStreamReader reader;
+            try {
+                XMLInputFactory factory = XMLInputFactory.newFactory();
+                factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+                factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+                reader = factory.createXMLStreamReader(in);
+            }
+            catch (XMLStreamException ex) {
+                in.close();
+                throw new IOException("Cannot read playlist: " + name, ex);
+            }
+            Iterator<EntryLine> tracks = new Iterator<>() {
+                private EntryLine next = null;
+
+                @Override
+                public boolean hasNext() {
+                    if (next == null) next = nextTrack(reader);
+                    return (next != null);
+                }
+
+                @Override
+                public EntryLine next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    EntryLine track = next;
+                    next = null;
+                    return track;
+                }
+            };
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(tracks, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                        in.close();
+                    }
+                    catch (XMLStreamException ex) {
+                        throw new UncheckedIOException(new IOException(ex.getMessage(), ex));
+                    }
+                    catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+        }
+
+        private EntryLine nextTrack(XMLStreamReader reader) {
+            try {
+                boolean track = false;
+                String location = null;
+                String title = null;
+                int duration = -1;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if ((event == XMLStreamConstants.END_ELEMENT) && track && reader.getLocalName().equals("track")) {
+                        if (location != null) return new EntryLine(location, toInfo(duration, title));
+                        track = false;
+                        continue;
+                    }
+                    if (event != XMLStreamConstants.START_ELEMENT) continue;
+                    String element = reader.getLocalName();
+                    if (element.equals("track")) {
+                        track = true;
+                        location = null;
+                        title = null;
+                        duration = -1;
+                        continue;
+                    }
+                    if (!track) continue;
+                    switch (element) {
+                    case "location":
+                        String text = reader.getElementText().trim();
+                        if ((location == null) && !text.isEmpty()) location = toEntry(text);
+                        break;
+                    case "title":
+                        title = reader.getElementText().trim();
+                        if (title.isEmpty()) title = null;
+                        break;
+                    case "duration":
+                        try {
+                            // milliseconds
+                            duration = (int)((Long.parseLong(reader.getElementText().trim()) + 500) / 1000);
+                        }
+                        catch (NumberFormatException ex) {
+                            duration = -1;
+                        }
+                        break;
+                    }
+                }
+                return null;
+            }
+            catch (XMLStreamException ex) {
+                throw new RuntimeException("Invalid xspf playlist: " + name + ", " + ex.getMessage(), ex);
+            }
+        }
+
+        private String toEntry(String location) {
+            try {
+                URI uri = new URI(location);
+                if ("file".equalsIgnoreCase(uri.getScheme())) return Paths.get(uri).toString();
+                if ((uri.getScheme() == null) && (uri.getPath() != null)) return uri.getPath();
+            }
+            catch (URISyntaxException | IllegalArgumentException ex) {
+                // not encoded locations are taken as they are
+            }
+            return location;
+        }
+
+        private String toLocation(EntryInterface entry) throws IOException {
+            String location = entry.getEntryString();
+            // a colon in the first segment would be taken as scheme
+            if (location.indexOf(':') >= 0) location = "./" + location;
+            try {
+                return new URI(null, null, location, null).toASCIIString();
+            }
+            catch (URISyntaxException ex) {
+                throw new IOException("Cannot write song location: " + entry.getEntryString(), ex);
+            }
+        }
+
+        @Override
+        protected void save(PlaylistInterface list) throws IOException {
+            try (EntryWriter out = openWriter()) {
+                Iterator<? extends EntryInterface> entries = list.getEntryIterator();
+                while (entries.hasNext()) out.write(entries.next());
+                out.commit();
+            }
+        }
+
+        @Override
+        protected EntryWriter openWriter() throws IOException {
+            Output target = openOutput();
+            try {
+                XMLStreamWriter out = XMLOutputFactory.newFactory().createXMLStreamWriter(target, "UTF-8");
+                out.writeStartDocument("UTF-8", "1.0");
+                out.writeCharacters(NEWLINE);
+                out.writeStartElement("playlist");
+                out.writeDefaultNamespace(NAMESPACE);
+                out.writeAttribute("version", "1");
+                out.writeCharacters(NEWLINE + "  ");
+                out.writeStartElement("trackList");
+                return new EntryWriter() {
+                    @Override
+                    public void write(EntryInterface entry) throws IOException {
+                        try {
+                            out.writeCharacters(NEWLINE + "    ");
+                            out.writeStartElement("track");
+                            out.writeStartElement("location");
+                            out.writeCharacters(toLocation(entry));
+                            out.writeEndElement();
+                            String title = getInfoTitle(entry.getInfo());
+                            if (title != null) {
+                                out.writeStartElement("title");
+                                out.writeCharacters(title);
+                                out.writeEndElement();
+                            }
+                            int duration = getDuration(entry.getInfo());
+                            if (duration >= 0) {
+                                out.writeStartElement("duration");
+                                out.writeCharacters(Long.toString(duration * 1000L));
+                                out.writeEndElement();
+                            }
+                            out.writeEndElement();
+                        }
+                        catch (XMLStreamException ex) {
+                            throw new IOException("Cannot write playlist: " + name, ex);
+                        }
+                    }
+
+                    @Override
+                    public void commit() throws IOException {
+                        try {
+                            out.writeCharacters(NEWLINE + "  ");
+                            out.writeEndElement();
+                            out.writeCharacters(NEWLINE);
+                            out.writeEndElement();
+                            out.writeEndDocument();
+                            out.writeCharacters(NEWLINE);
+                            out.flush();
+                        }
+                        catch (XMLStreamException ex) {
+                            throw new IOException("Cannot write playlist: " + name, ex);
+                        }
+                        target.commit();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            out.close();
+                        }
+                        catch (XMLStreamException ex) {
+                            // the target is closed anyway
+                        }
+                        target.close();
+                    }
+                };
+            }
+            catch (XMLStreamException ex) {
+                target.close();
+                throw new IOException("Cannot write playlist: " + name, ex);
+            }
+        }
+    }
+}
@@ -1,12 +1,61 @@
 package oanavodo.songbase.test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import oanavodo.songbase.Duplicates;
+import oanavodo.songbase.Json;
+import oanavodo.songbase.Library;
+import oanavodo.songbase.MoveJournal;
+import oanavodo.songbase.Options;
+import oanavodo.songbase.Orphans;
+import oanavodo.songbase.Repair;
+import oanavodo.songbase.Similar;
+import oanavodo.songbase.Song;
+import oanavodo.songbase.SongBase;
+import oanavodo.songbase.SongBaseContext;
+import oanavodo.songbase.SongCheck;
+import oanavodo.songbase.Transfer;
+import oanavodo.songbase.playlist.Playlist;
+import oanavodo.songbase.playlist.PlaylistList;
 import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.TestFactory;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  *
@@ -61,6 +110,9 @@ public class SongBaseTest {
             songTest("check3", "--base=%run% --check @%Playsorted1.m3u% @%Playsorted2.m3u8% 2>%=check/check3.out%"),
             // check UTF-8 with BOM
             songTest("check4", "--base=%run% --check %check/Playcheck4.m3u8% 2>%=check/check4.out%", TestOption.NOCREATE, TestOption.REPLACEOUT),
+            // a song missing in several playlists is reported once
+            songTest("check5", "--base=%run% --check %check/Playcheck5a.m3u% %check/Playcheck5b.m3u% 2>%=check/check5.out%", TestOption.NOCREATE, TestOption.REPLACEOUT),
+            checkCacheTest("check6"),
             // convert tests
             songTest("convert1", "--out %=Playsorted1.m3u8% %Playsorted1.m3u=%"),
             songTest("convert2", "--out %=Playsorted2.m3u%  %Playsorted2.m3u8=%"),
@@ -68,8 +120,38 @@ public class SongBaseTest {
             songTest("convert4", "--type=m3u --out - %convert2:Playsorted2.m3u8% >%=Playsorted2.m3u%"),
             songTest("convert5", "--out Rock/%=convert/convert5.m3u% %Playsorted1.m3u=%"),
             songTest("convert6", "--out %=Playsorted1.m3u% Rock/%convert/convert5.m3u=%"),
+            songTest("convert7", "--out %=convert/Playsorted1.sbpl% %Playsorted1.m3u=%"),
+            songTest("convert8", "--out %=Playsorted1.m3u% %convert7:Playsorted1.sbpl=%"),
+            songTest("convert9", "--out %=convert/Playsorted1.pls% %Playsorted1.m3u=%"),
+            songTest("convert10", "--out %=convert/Playsorted1.xspf% %Playsorted1.m3u=%"),
+            songTest("convert11", "--out %=convert/Playsorted1.jsonl% %Playsorted1.m3u=%"),
+            songTest("convert12", "--out %=Playsorted1.m3u% %convert10:Playsorted1.xspf=%"),
+            songTest("extinf1", "--sort %extinf/Playextmixed.m3u8=extinf/Playextsorted.m3u8%"),
+            songTest("extinf2", "--out %=extinf/Playextsorted.jsonl% %extinf/Playextsorted.m3u8=%"),
+            songTest("extinf3", "--out %=extinf/Playextsorted.m3u8% %extinf2:Playextsorted.jsonl=%"),
+            // songs of the tests are empty, so no duration is found
+            songTest("durations1", "--base=%run% --durations %Playsorted1.m3u=%"),
+            // interpret of the first song only in its tag
+            songTest("tags1", "--base=%run% --nocheck --tags --type=m3u --select Eurythmics @%tags/Tagged.mp3% %tags/Playtags.m3u=% --out - >%=tags/Playselect.m3u%", TestOption.NOCREATE),
             // map tests
             songTest("map1", "--base=%run% --map Rock=Other %map/map1input.m3u=map/map1result3.m3u% @%Playsorted1.m3u=map/map1result1.m3u% @%Playsorted2.m3u8=map/map1result2.m3u8%"),
+            songTest("map3", "--base=%run% --map Rock=Other - <%map/map1input.m3u% >%=map/map1result3.m3u% @%Playsorted1.m3u=map/map1result1.m3u% @%Playsorted2.m3u8=map/map1result2.m3u8%"),
+            transferTest("transfer1"),
+            songTest("map2", "--base=%run% --dryrun --map Rock=Other %map/map1input.m3u=map/map1input.m3u% @%Playsorted1.m3u=Playsorted1.m3u% @%Playsorted2.m3u8=Playsorted2.m3u8% >%map2.plan%"),
+            planTest("plan1"),
+            recoverTest("recover1", MoveJournal.Mode.REPLAY, false),
+            recoverTest("recover2", MoveJournal.Mode.ROLLBACK, false),
+            recoverTest("recover3", MoveJournal.Mode.REPLAY, true),
+            recoverTest("recover4", MoveJournal.Mode.ROLLBACK, true),
+            recoverCorruptTest("recover5"),
+            duplicatesTest("duplicates1"),
+            songTest("similar1", "--base=%run% --similar @%similar/Playsimilar.m3u% >%=similar/similar1.out%"),
+            similarTest("similar2", 2001),
+            libraryTest("library1"),
+            writersTest("writers1"),
+            changeTest("change1", 40),
+            pipelineTest("pipeline1", 1000),
+            virtualTest("virtual1"),
             // shuffle and sort tests
             songTest("shuffle1", "--shuffle %Playsorted1.m3u% %Playsorted2.m3u8%"),
             songTest("sort1", "--sort  %shuffle1:Playsorted1.m3u=Playsorted1.m3u% %shuffle1:Playsorted2.m3u8=Playsorted2.m3u8%"),
@@ -87,10 +169,776 @@ public class SongBaseTest {
             songTest("readd1", "--base=%run% --sorted --type=m3u --add %Playsorted1.m3u=Playsorted1.m3u% %remove1:Playremove1.m3u=% --out - >%=Playsorted1.m3u%"),
             songTest("add2", "--base=%run% --sorted --type=m3u --add %run:Eurythmics/Eurythmics--Angel.mp3% %Playsorted1.m3u=% @%Playsorted2.m3u% --out - >%=add/Playadd2.m3u%"),
             songTest("remove2", "--base=%run% --sorted --type=m3u --remove %run:Eurythmics/Eurythmics--Angel.mp3% %add2:Playadd2.m3u=% --out - >%=Playsorted1.m3u%"),
+            songTest("add3", "--base=%run% --sorted --stream --add %Playsorted2.m3u=Playsorted2.m3u% @%Playsorted1.m3u=add/Playadd1.m3u%"),
+            appendTest("append1"),
+            unchangedTest("unchanged1"),
+            locksTest("locks1", 600),
+            updateLocksTest("locks2", 200),
+            lockedTest("locked1", Options.Locked.FAIL),
+            lockedTest("locked2", Options.Locked.SKIP),
+            lockedTest("locked3", Options.Locked.WAIT),
+            songTest("add4", "--base=%run% --sorted --locked=skip --add %Playsorted2.m3u=Playsorted2.m3u% @%Playsorted1.m3u=add/Playadd1.m3u%"),
+            repairTest("repair1"),
+            songTest("orphans1", "--base=%run% --sorted --type=m3u --orphans %Playsorted2.m3u=Playsorted2.m3u% @%Playsorted1.m3u% --out - >%=add/Playremove1.m3u%"),
+            // written as found, so the order of the folders is not known
+            songTest("orphans2", "--base=%run% --type=m3u --orphans %Playsorted2.m3u=Playsorted2.m3u% @%Playsorted1.m3u% --out - >%Playorphans2.m3u%"),
+            songTest("orphans3", "--sort %orphans2:Playorphans2.m3u=add/Playremove1.m3u%"),
+            publishTest("orphans4", 600),
         };
     }
 
     DynamicTest songTest(String name, String command, TestOption... option) {
         return DynamicTest.dynamicTest(name + " Test", () -> new SongCommand(name, command, option).call());
     }
+
+    /**
+     * Adds a song to more playlists than files can be open with a small limit (e.g. 'ulimit -n 300').
+     * The lock of each playlist has to be released as soon as it has been written.
+     */
+    DynamicTest locksTest(String name, int count) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Path song = Files.createDirectories(rundir.resolve("Eurythmics")).resolve("Eurythmics--Angel.mp3");
+            Files.createFile(song);
+            for (int i = 0; i < count; i++) Files.createFile(rundir.resolve(String.format("Play%04d.m3u", i)));
+
+            SongBaseContext context = new SongBaseContext(new Options(), new PrintStream(OutputStream.nullOutputStream()));
+            Playlist that = Playlist.ofPlaylistOrSong(context, song);
+            AtomicInteger held = new AtomicInteger(0);
+            PlaylistList.forEach(context, rundir, path -> true, list -> {
+                held.accumulateAndGet(context.getLocks().size(), Math::max);
+                list.add(that.entries());
+            }, false);
+
+            assertTrue(held.get() <= context.getJobs().getParallelism(), "Locks held at the same time: " + held.get());
+            assertTrue(context.getLocks().isEmpty(), "Locks not released: " + context.getLocks().size());
+            try (Stream<Path> paths = Files.list(rundir)) {
+                assertEquals(0, paths.filter(path -> path.getFileName().toString().endsWith(".lock")).count(), "Lock files not removed");
+            }
+            assertEquals(1, Files.readAllLines(rundir.resolve(String.format("Play%04d.m3u", count - 1))).size());
+        });
+    }
+
+    /**
+     * Adds a song to all playlists read at once. Each playlist has to be locked only while it is written.
+     */
+    DynamicTest updateLocksTest(String name, int count) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Path song = Files.createDirectories(rundir.resolve("Eurythmics")).resolve("Eurythmics--Angel.mp3");
+            Files.createFile(song);
+            for (int i = 0; i < count; i++) Files.createFile(rundir.resolve(String.format("Play%04d.m3u", i)));
+
+            Options options = new Options();
+            options.setJobs(2);
+            SongBaseContext context = new SongBaseContext(options, new PrintStream(OutputStream.nullOutputStream()));
+            Playlist that = Playlist.ofPlaylistOrSong(context, song);
+            PlaylistList factory = new PlaylistList(context, rundir, true);
+            factory.change(list -> true, list -> list.add(that.entries()));
+            AtomicInteger held = new AtomicInteger(0);
+            AtomicBoolean done = new AtomicBoolean(false);
+            Thread sampler = new Thread(() -> {
+                while (!done.get()) held.accumulateAndGet(context.getLocks().size(), Math::max);
+            });
+            sampler.start();
+            try {
+                factory.update(false);
+            }
+            finally {
+                done.set(true);
+                sampler.join();
+            }
+
+            assertTrue(held.get() <= context.getJobs().getParallelism(), "Locks held at the same time: " + held.get());
+            assertTrue(context.getLocks().isEmpty(), "Locks not released: " + context.getLocks().size());
+            assertEquals(1, Files.readAllLines(rundir.resolve(String.format("Play%04d.m3u", count - 1))).size());
+        });
+    }
+
+    /**
+     * Adds a song to two playlists while another run holds the lock of the first one.
+     * With 'wait' the other run writes the playlist before it releases the lock, the song is added to its content.
+     */
+    DynamicTest lockedTest(String name, Options.Locked policy) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Path song = Files.createDirectories(rundir.resolve("Eurythmics")).resolve("Eurythmics--Angel.mp3");
+            Files.createFile(song);
+            Path other = rundir.resolve("Eurythmics").resolve("Eurythmics--Miracle of Love.mp3");
+            Files.createFile(other);
+            Path locked = Files.createFile(rundir.resolve("Play1.m3u"));
+            Path free = Files.createFile(rundir.resolve("Play2.m3u"));
+
+            Options options = new Options();
+            options.setLocked(policy);
+            SongBaseContext context = new SongBaseContext(options, new PrintStream(OutputStream.nullOutputStream()));
+            Playlist that = Playlist.ofPlaylistOrSong(context, song);
+            Path lockfile = rundir.resolve(".Play1.m3u.lock");
+            FileChannel channel = FileChannel.open(lockfile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.lock();
+            Thread holder = new Thread(() -> {
+                try {
+                    Thread.sleep(500);
+                    Files.write(locked, List.of("Eurythmics/Eurythmics--Miracle of Love.mp3"));
+                    Files.delete(lockfile);
+                    channel.close();
+                }
+                catch (Exception ex) {
+                    throw new RuntimeException(ex.getMessage(), ex);
+                }
+            });
+            if (policy == Options.Locked.WAIT) holder.start();
+            try {
+                PlaylistList.forEach(context, rundir, path -> true, list -> list.add(that.entries()), false);
+                assertTrue(policy != Options.Locked.FAIL, "Locked playlist not reported");
+            }
+            catch (RuntimeException ex) {
+                assertEquals(Options.Locked.FAIL, policy, ex.getMessage());
+            }
+            finally {
+                if (policy == Options.Locked.WAIT) holder.join();
+                else {
+                    Files.delete(lockfile);
+                    channel.close();
+                }
+            }
+
+            assertEquals(List.of("Eurythmics/Eurythmics--Angel.mp3"), Files.readAllLines(free));
+            List<String> expected = (policy == Options.Locked.WAIT)
+                ? List.of("Eurythmics/Eurythmics--Miracle of Love.mp3", "Eurythmics/Eurythmics--Angel.mp3")
+                : List.of();
+            assertEquals(expected, Files.readAllLines(locked));
+            assertTrue(context.getLocks().isEmpty(), "Locks not released: " + context.getLocks().size());
+        });
+    }
+
+    /**
+     * Writes the plan of moving songs into the base folder and applies it afterwards.
+     */
+    DynamicTest planTest(String name) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Path song = Files.createDirectories(rundir.resolve("Rock")).resolve("Eurythmics--Angel.mp3");
+            Files.createFile(song);
+            Path list = Files.write(rundir.resolve("Play1.m3u"), List.of("Rock/Eurythmics--Angel.mp3"));
+            Path plan = rundir.resolve("map.plan");
+
+            SongBase.main(new String[] { "--base", rundir.toString(), "--dryrun", "--map", "Rock=.", "--plan", plan.toString(), list.toString() });
+            assertTrue(Files.exists(song), "Song moved by dry run");
+            SongBase.main(new String[] { "--base", rundir.toString(), "--apply", plan.toString() });
+
+            assertTrue(Files.exists(rundir.resolve("Eurythmics--Angel.mp3")), "Song not moved");
+            assertEquals(List.of("Eurythmics--Angel.mp3"), Files.readAllLines(list));
+        });
+    }
+
+    /**
+     * Recovers from a map of two songs from 'Rock' into the base folder.
+     * The run died while writing the second move or, if written is true, while writing the playlists.
+     */
+    DynamicTest recoverTest(String name, MoveJournal.Mode mode, boolean written) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            List<String> songs = List.of("Eurythmics--Angel.mp3", "Ultraspank--5.mp3");
+            Path rock = Files.createDirectories(rundir.resolve("Rock"));
+            List<String> before = songs.stream().map(song -> "Rock/" + song).collect(Collectors.toList());
+            List<String> after = songs;
+            Path list = Files.write(rundir.resolve("Play1.m3u"), written ? after : before);
+            List<String> journal = new ArrayList<>(List.of("#SONGBASE-JOURNAL", "#BASE " + rundir, "#LIST " + list, "#ROOT " + rundir));
+            // target of a move into the base folder is empty
+            songs.forEach(song -> journal.add("MOVE\tRock/" + song + "\t"));
+            Files.createFile(rundir.resolve(songs.get(0)));
+            journal.add("BEGIN\tRock/" + songs.get(0));
+            journal.add("DONE\tRock/" + songs.get(0) + "\tMOVE");
+            if (written) {
+                Files.createFile(rundir.resolve(songs.get(1)));
+                journal.add("BEGIN\tRock/" + songs.get(1));
+                journal.add("DONE\tRock/" + songs.get(1) + "\tMOVE");
+                journal.add("WRITE\t" + list);
+            }
+            else {
+                Files.createFile(rock.resolve(songs.get(1)));
+                journal.add("BEGIN\tRock/Ultra");
+            }
+            Files.writeString(MoveJournal.locate(rundir), String.join("\n", journal));
+
+            // like the recover operation, moved songs are not checked
+            Options options = new Options();
+            options.setCheck(Options.Check.NO);
+            SongBaseContext context = new SongBaseContext(options, new PrintStream(OutputStream.nullOutputStream()));
+            MoveJournal.recover(context, rundir, mode, false);
+
+            boolean replayed = (mode == MoveJournal.Mode.REPLAY);
+            for (String song : songs) {
+                assertEquals(replayed, Files.exists(rundir.resolve(song)), song);
+                assertEquals(!replayed, Files.exists(rock.resolve(song)), song);
+            }
+            assertEquals(replayed ? after : before, Files.readAllLines(list));
+            assertTrue(!Files.exists(MoveJournal.locate(rundir)), "Journal not removed");
+        });
+    }
+
+    /**
+     * A journal with an invalid line before its last line is not recovered.
+     */
+    DynamicTest recoverCorruptTest(String name) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Path song = Files.createDirectories(rundir.resolve("Rock")).resolve("Eurythmics--Angel.mp3");
+            Files.createFile(song);
+            Files.createDirectories(rundir.resolve("Other"));
+            Path list = Files.write(rundir.resolve("Play1.m3u"), List.of("Rock/Eurythmics--Angel.mp3"));
+            List<String> journal = List.of("#SONGBASE-JOURNAL", "#BASE " + rundir, "#LIST " + list, "#ROOT " + rundir,
+                "MOVE\tRock/Eurythmics--Angel.mp3", "MOVE\tRock/Eurythmics--Angel.mp3\tOther", "BEGIN\tRock/Eurythmics--Angel.mp3");
+            Files.writeString(MoveJournal.locate(rundir), String.join("\n", journal));
+
+            SongBaseContext context = new SongBaseContext(new Options(), new PrintStream(OutputStream.nullOutputStream()));
+            RuntimeException ex = assertThrows(RuntimeException.class, () -> MoveJournal.recover(context, rundir, MoveJournal.Mode.REPLAY, false));
+            assertTrue(ex.getMessage().startsWith("Invalid journal line"), ex.getMessage());
+            assertTrue(Files.exists(song), "Song moved");
+            assertTrue(Files.exists(MoveJournal.locate(rundir)), "Journal removed");
+        });
+    }
+
+    /**
+     * Finds three copies of a song and merges them into the copy referenced by most playlists.
+     * A song of same size but other content is no copy.
+     */
+    DynamicTest duplicatesTest(String name) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            for (String folder : List.of("A", "B", "C")) {
+                Files.writeString(Files.createDirectories(rundir.resolve(folder)).resolve("Eurythmics--Angel.mp3"), "angel");
+            }
+            Files.writeString(rundir.resolve("A/Eurythmics--Miracle of Love.mp3"), "other");
+            Path list1 = Files.write(rundir.resolve("Play1.m3u"), List.of("A/Eurythmics--Angel.mp3", "B/Eurythmics--Angel.mp3"));
+            Path list2 = Files.write(rundir.resolve("Play2.m3u"), List.of("A/Eurythmics--Angel.mp3", "A/Eurythmics--Miracle of Love.mp3"));
+            Path list3 = Files.write(rundir.resolve("Play3.m3u"), List.of("C/Eurythmics--Angel.mp3", "A/Eurythmics--Miracle of Love.mp3"));
+
+            SongBaseContext context = new SongBaseContext(new Options(), new PrintStream(OutputStream.nullOutputStream()));
+            Duplicates finder = new Duplicates(context, rundir, new PlaylistList(context, rundir, true));
+            List<Duplicates.Group> groups = finder.find();
+            assertEquals(1, groups.size());
+            assertEquals(3, groups.get(0).getCopies().size());
+            assertEquals(rundir.resolve("A/Eurythmics--Angel.mp3"), finder.canonical(groups.get(0)));
+
+            SongBase.main(new String[] { "--base", rundir.toString(), "--duplicates", "merge" });
+            assertEquals(List.of("A/Eurythmics--Angel.mp3"), Files.readAllLines(list1));
+            assertEquals(List.of("A/Eurythmics--Angel.mp3", "A/Eurythmics--Miracle of Love.mp3"), Files.readAllLines(list2));
+            assertEquals(List.of("A/Eurythmics--Angel.mp3", "A/Eurythmics--Miracle of Love.mp3"), Files.readAllLines(list3));
+            assertTrue(Files.exists(rundir.resolve("B/Eurythmics--Angel.mp3")), "Copy deleted");
+        });
+    }
+
+    /**
+     * Adds a song to playlists by the library while another run holds the lock of one of them.
+     * The locked playlist is reported as failed or, with lock policy 'skip', as skipped.
+     */
+    DynamicTest libraryTest(String name) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Path song = Files.createDirectories(rundir.resolve("Eurythmics")).resolve("Eurythmics--Angel.mp3");
+            Files.createFile(song);
+            Path free = Files.createFile(rundir.resolve("Play1.m3u"));
+            Path locked = Files.createFile(rundir.resolve("Play2.m3u"));
+            Path lockfile = rundir.resolve(".Play2.m3u.lock");
+            FileChannel channel = FileChannel.open(lockfile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.lock();
+            try {
+                SongBaseContext context = new SongBaseContext(new Options(), new PrintStream(OutputStream.nullOutputStream()));
+                Library.Result result = Library.open(context, rundir).add(song).to(Library.allPlaylists()).run();
+                assertEquals(Set.of(free, locked), Set.copyOf(result.getChanged()));
+                assertEquals(1, result.getWritten());
+                assertEquals(Set.of(locked), result.getFailed().keySet());
+                assertTrue(result.getFailed().get(locked).startsWith("Playlist is locked"), result.getFailed().get(locked));
+                assertEquals(List.of(), result.getSkipped());
+                assertEquals(List.of("Eurythmics/Eurythmics--Angel.mp3"), Files.readAllLines(free));
+                assertEquals(List.of(), Files.readAllLines(locked));
+
+                Options options = new Options();
+                options.setLocked(Options.Locked.SKIP);
+                context = new SongBaseContext(options, new PrintStream(OutputStream.nullOutputStream()));
+                result = Library.open(context, rundir).add(song).to(Library.playlists(locked)).run();
+                assertEquals(0, result.getWritten());
+                assertEquals(List.of(locked), result.getSkipped());
+                assertTrue(result.getFailed().isEmpty(), "Failed: " + result.getFailed());
+                assertEquals(List.of(), Files.readAllLines(locked));
+            }
+            finally {
+                Files.delete(lockfile);
+                channel.close();
+            }
+        });
+    }
+
+    /**
+     * Writes four changed playlists in parallel while two of them are locked by another run.
+     * Both failures are collected and the other playlists are written.
+     */
+    DynamicTest writersTest(String name) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Path song = Files.createDirectories(rundir.resolve("Eurythmics")).resolve("Eurythmics--Angel.mp3");
+            Files.createFile(song);
+            List<Path> paths = new ArrayList<>();
+            for (int i = 1; i <= 4; i++) paths.add(Files.createFile(rundir.resolve("Play" + i + ".m3u")));
+            List<Path> lockfiles = List.of(rundir.resolve(".Play2.m3u.lock"), rundir.resolve(".Play4.m3u.lock"));
+            List<FileChannel> channels = new ArrayList<>();
+            for (Path lockfile : lockfiles) {
+                FileChannel channel = FileChannel.open(lockfile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                channel.lock();
+                channels.add(channel);
+            }
+            try {
+                Options options = new Options();
+                options.setJobs(4);
+                SongBaseContext context = new SongBaseContext(options, new PrintStream(OutputStream.nullOutputStream()));
+                Playlist that = Playlist.ofPlaylistOrSong(context, song);
+                PlaylistList factory = new PlaylistList(context, rundir, false);
+                for (Path path : paths) factory.addPlaylist(Playlist.of(context, path));
+                factory.change(list -> true, list -> list.add(that.entries()));
+                Map<Path, String> failed = new LinkedHashMap<>();
+                List<Path> skipped = new ArrayList<>();
+                factory.update(false, failed, skipped);
+                assertEquals(Set.of(paths.get(1), paths.get(3)), failed.keySet());
+                assertEquals(List.of(), skipped);
+                assertEquals(List.of("Eurythmics/Eurythmics--Angel.mp3"), Files.readAllLines(paths.get(0)));
+                assertEquals(List.of("Eurythmics/Eurythmics--Angel.mp3"), Files.readAllLines(paths.get(2)));
+                assertEquals(List.of(), Files.readAllLines(paths.get(1)));
+                assertEquals(List.of(), Files.readAllLines(paths.get(3)));
+
+                RuntimeException ex = assertThrows(RuntimeException.class, () -> factory.update(false));
+                assertEquals("Not all playlists could be written: 2", ex.getMessage());
+                assertTrue(context.getLocks().isEmpty(), "Locks not released: " + context.getLocks().size());
+            }
+            finally {
+                for (Path lockfile : lockfiles) Files.delete(lockfile);
+                for (FileChannel channel : channels) channel.close();
+            }
+        });
+    }
+
+    /**
+     * Adds songs to three playlists by concurrent updates while another thread reads them.
+     * No song is lost and each update is done in all playlists at once, so all playlists have the same order.
+     */
+    DynamicTest changeTest(String name, int count) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Path folder = Files.createDirectories(rundir.resolve("Eurythmics"));
+            List<Path> songs = new ArrayList<>();
+            for (int i = 0; i < count; i++) songs.add(Files.createFile(folder.resolve("Eurythmics--Song " + i + ".mp3")));
+            List<Path> paths = new ArrayList<>();
+            for (int i = 1; i <= 3; i++) paths.add(Files.createFile(rundir.resolve("Play" + i + ".m3u")));
+
+            SongBaseContext context = new SongBaseContext(new Options(), new PrintStream(OutputStream.nullOutputStream()));
+            PlaylistList factory = new PlaylistList(context, rundir, false);
+            for (Path path : paths) factory.addPlaylist(Playlist.of(context, path));
+            List<Playlist> those = new ArrayList<>();
+            for (Path song : songs) those.add(Playlist.ofPlaylistOrSong(context, song));
+            AtomicBoolean done = new AtomicBoolean(false);
+            CompletableFuture<Void> reader = CompletableFuture.runAsync(() -> {
+                while (!done.get()) factory.stream().forEach(list -> assertTrue(list.entries().count() <= count));
+            });
+            try {
+                CompletableFuture.allOf(those.stream()
+                    .map(that -> CompletableFuture.runAsync(() -> factory.change(list -> true, list -> list.add(that.entries()))))
+                    .toArray(CompletableFuture[]::new)).join();
+            }
+            finally {
+                done.set(true);
+            }
+            reader.join();
+            factory.update(false);
+
+            List<String> first = Files.readAllLines(paths.get(0));
+            assertEquals(songs.stream().map(song -> "Eurythmics/" + song.getFileName()).collect(Collectors.toSet()), Set.copyOf(first));
+            assertEquals(count, first.size());
+            assertEquals(first, Files.readAllLines(paths.get(1)));
+            assertEquals(first, Files.readAllLines(paths.get(2)));
+        });
+    }
+
+    /**
+     * Reads a playlist of several batches with parallel jobs. Every tenth song has no interpret and is only reported.
+     * Entries and messages keep the order of the playlist file.
+     */
+    DynamicTest pipelineTest(String name, int count) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Files.createDirectories(rundir.resolve("Eurythmics"));
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < count; i++) lines.add("Eurythmics/" + ((i % 10 == 0) ? "Song " : "Eurythmics--Song ") + i + ".mp3");
+            Collections.shuffle(lines, new Random(44));
+            List<Path> expected = new ArrayList<>();
+            List<String> broken = new ArrayList<>();
+            for (String line : lines) {
+                Path song = Files.createFile(rundir.resolve(line));
+                if (line.contains("--")) expected.add(song);
+                else broken.add(song.getFileName().toString());
+            }
+            Path path = Files.write(rundir.resolve("Play1.m3u"), lines);
+
+            Options options = new Options();
+            options.setJobs(4);
+            options.setCheck(Options.Check.ONLY);
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            SongBaseContext context = new SongBaseContext(options, new PrintStream(log, true, StandardCharsets.UTF_8));
+            Playlist list = Playlist.of(context, path);
+            assertEquals(expected, list.entries().map(entry -> entry.getPath()).collect(Collectors.toList()));
+            List<String> reported = log.toString(StandardCharsets.UTF_8).lines()
+                .filter(line -> line.startsWith("Cannot detect interpret and title"))
+                .collect(Collectors.toList());
+            assertEquals(broken.size(), reported.size());
+            for (int i = 0; i < broken.size(); i++) {
+                assertTrue(reported.get(i).endsWith(broken.get(i)), reported.get(i) + " instead of " + broken.get(i));
+            }
+        });
+    }
+
+    /**
+     * Runs tasks and playlist updates with option virtual. No more tasks than jobs run at the same time, in virtual
+     * threads with Java 21 or later, else in the thread pool after one warning.
+     */
+    DynamicTest virtualTest(String name) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Path song = Files.createDirectories(rundir.resolve("Eurythmics")).resolve("Eurythmics--Angel.mp3");
+            Files.createFile(song);
+            List<Path> paths = new ArrayList<>();
+            for (int i = 1; i <= 3; i++) paths.add(Files.createFile(rundir.resolve("Play" + i + ".m3u")));
+
+            Options options = new Options();
+            options.setJobs(2);
+            options.setVirtual(true);
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            SongBaseContext context = new SongBaseContext(options, new PrintStream(log, true, StandardCharsets.UTF_8));
+            AtomicInteger active = new AtomicInteger();
+            AtomicInteger most = new AtomicInteger();
+            List<Future<Boolean>> tasks = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                tasks.add(context.getJobs().submit(() -> {
+                    most.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    Thread.sleep(10);
+                    active.decrementAndGet();
+                    return context.getJobs().isWorker();
+                }));
+            }
+            for (Future<Boolean> task : tasks) assertTrue(task.get(), "Task not run as worker");
+            assertTrue(most.get() <= 2, "Tasks running at the same time: " + most.get());
+
+            Playlist that = Playlist.ofPlaylistOrSong(context, song);
+            PlaylistList.forEach(context, rundir, path -> true, list -> list.add(that.entries()), false);
+            for (Path path : paths) assertEquals(List.of("Eurythmics/Eurythmics--Angel.mp3"), Files.readAllLines(path));
+
+            long warnings = log.toString(StandardCharsets.UTF_8).lines().filter(line -> line.contains("Virtual threads need Java 21")).count();
+            assertEquals((Runtime.version().feature() >= 21) ? 0 : 1, warnings);
+        });
+    }
+
+    /**
+     * Finds a pair of similar songs within a block of more songs with same title than compared pair by pair.
+     * The numbers of all other songs differ by two characters, so they are less similar.
+     */
+    DynamicTest similarTest(String name, int count) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            for (int i = 0; i < count; i++) {
+                String number = String.format("%04d", i);
+                Files.createFile(rundir.resolve("Band " + number + " " + new StringBuilder(number).reverse() + "--Intro.mp3"));
+            }
+            Files.createFile(rundir.resolve("Band 0007x 7000--Intro.mp3"));
+
+            SongBaseContext context = new SongBaseContext(new Options(), new PrintStream(OutputStream.nullOutputStream()));
+            Similar finder = new Similar(context, rundir);
+            List<Similar.Pair> pairs = finder.find(0.95);
+            assertEquals(1, pairs.size());
+            assertEquals(rundir.resolve("Band 0007 7000--Intro.mp3"), pairs.get(0).getFirst());
+            assertEquals(rundir.resolve("Band 0007x 7000--Intro.mp3"), pairs.get(0).getSecond());
+            assertEquals(1.0 - 1.0 / 21, pairs.get(0).getScore(), 0.0001);
+            assertEquals(0, finder.getOversized());
+        });
+    }
+
+    /**
+     * Publishes more orphans than the buffer of the publisher holds. They have to be delivered by the pool of the jobs.
+     */
+    DynamicTest publishTest(String name, int count) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            for (int i = 0; i < count; i++) Files.createFile(rundir.resolve(String.format("Band %04d--Intro.mp3", i)));
+
+            Options options = new Options();
+            options.setJobs(2);
+            SongBaseContext context = new SongBaseContext(options, new PrintStream(OutputStream.nullOutputStream()));
+            List<Song> received = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger foreign = new AtomicInteger(0);
+            CompletableFuture<Void> completed = new CompletableFuture<>();
+            int published = new Orphans(context, rundir, new PlaylistList(context, rundir, true)).publish(new Flow.Subscriber<Song>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(Song song) {
+                    if (ForkJoinTask.getPool() != context.getJobs().getPool()) foreign.incrementAndGet();
+                    received.add(song);
+                }
+
+                @Override
+                public void onError(Throwable ex) {
+                    completed.completeExceptionally(ex);
+                }
+
+                @Override
+                public void onComplete() {
+                    completed.complete(null);
+                }
+            });
+            completed.get(10, TimeUnit.SECONDS);
+
+            assertEquals(count, published);
+            assertEquals(count, received.size());
+            assertEquals(0, foreign.get(), "Songs delivered outside of the jobs pool");
+        });
+    }
+
+    /**
+     * Moves songs within a file store and into a folder which is taken as another file store.
+     * A copy whose checksum differs leaves the source untouched.
+     */
+    DynamicTest transferTest(String name) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            byte[] content = new byte[300 * 1024];
+            new Random(42).nextBytes(content);
+            Path from = Files.createDirectories(rundir.resolve("A"));
+            Path local = Files.createDirectories(rundir.resolve("B"));
+            Path remote = Files.createDirectories(rundir.resolve("C"));
+            for (String song : List.of("Eurythmics--Angel.mp3", "Ultraspank--5.mp3", "Def Leppard--Foolin'.mp3")) Files.write(from.resolve(song), content);
+            Files.setLastModifiedTime(from.resolve("Ultraspank--5.mp3"), FileTime.fromMillis(1000000000000L));
+
+            SongBaseContext context = new SongBaseContext(new Options(), new PrintStream(OutputStream.nullOutputStream()));
+            context.getFileStores().put(remote.toAbsolutePath().normalize(), new OtherStore());
+            Transfer transfer = new Transfer(context);
+            assertFalse(transfer.move(from.resolve("Eurythmics--Angel.mp3"), local.resolve("Eurythmics--Angel.mp3")));
+            assertTrue(transfer.move(from.resolve("Ultraspank--5.mp3"), remote.resolve("Ultraspank--5.mp3")));
+            assertFalse(Files.exists(from.resolve("Ultraspank--5.mp3")), "Source not deleted");
+            assertArrayEquals(content, Files.readAllBytes(remote.resolve("Ultraspank--5.mp3")));
+            assertEquals(FileTime.fromMillis(1000000000000L), Files.getLastModifiedTime(remote.resolve("Ultraspank--5.mp3")));
+            assertEquals(1, transfer.getCopies());
+            assertTrue(transfer.report(1000000000L).startsWith("Copied between file stores: 1 songs, 0.3 MB"), transfer.report(1000000000L));
+
+            Transfer failing = new Transfer(context) {
+                @Override
+                protected long checksum(Path file) throws IOException {
+                    // the copy is damaged
+                    return super.checksum(file) + (file.getFileName().toString().endsWith(".part") ? 1 : 0);
+                }
+            };
+            IOException ex = assertThrows(IOException.class, () -> failing.move(from.resolve("Def Leppard--Foolin'.mp3"), remote.resolve("Def Leppard--Foolin'.mp3")));
+            assertTrue(ex.getMessage().startsWith("Verification of copy failed"), ex.getMessage());
+            assertArrayEquals(content, Files.readAllBytes(from.resolve("Def Leppard--Foolin'.mp3")));
+            try (Stream<Path> paths = Files.list(remote)) {
+                assertEquals(List.of(remote.resolve("Ultraspank--5.mp3")), paths.collect(Collectors.toList()));
+            }
+        });
+    }
+
+    /**
+     * File store which is different to all others.
+     */
+    private static class OtherStore extends FileStore {
+        @Override
+        public String name() {
+            return "other";
+        }
+
+        @Override
+        public String type() {
+            return "other";
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return false;
+        }
+
+        @Override
+        public long getTotalSpace() {
+            return 0;
+        }
+
+        @Override
+        public long getUsableSpace() {
+            return 0;
+        }
+
+        @Override
+        public long getUnallocatedSpace() {
+            return 0;
+        }
+
+        @Override
+        public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+            return false;
+        }
+
+        @Override
+        public boolean supportsFileAttributeView(String name) {
+            return false;
+        }
+
+        @Override
+        public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+            return null;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks songs twice, the second time only the folder changed in between is checked again.
+     */
+    DynamicTest checkCacheTest(String name) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Path rock = Files.createDirectories(rundir.resolve("Rock"));
+            Path pop = Files.createDirectories(rundir.resolve("Pop"));
+            Files.createFile(rock.resolve("Tool--Sober.mp3"));
+            Files.createFile(pop.resolve("Eurythmics--Angel.mp3"));
+            Path list1 = Files.write(rundir.resolve("Play1.m3u"), List.of("Rock/Tool--Sober.mp3", "Rock/Ultraspank--5.mp3"));
+            Path list2 = Files.write(rundir.resolve("Play2.m3u"), List.of("Rock/Ultraspank--5.mp3", "Pop/Eurythmics--Angel.mp3"));
+            // a change of the folder within the same millisecond would not be detected
+            Files.setLastModifiedTime(rock, FileTime.fromMillis(1000000000000L));
+
+            Options options = new Options();
+            options.setCheck(Options.Check.ONLY);
+            SongBaseContext context = new SongBaseContext(options, new PrintStream(OutputStream.nullOutputStream()));
+            // the playlists of a report are in the order of the factory
+            PlaylistList factory = new PlaylistList(context, rundir, false);
+            factory.addPlaylist(Playlist.of(context, list1));
+            factory.addPlaylist(Playlist.of(context, list2));
+            SongCheck.Report report = new SongCheck(context, rundir).check(factory.stream());
+            assertEquals(3, report.getSongs());
+            assertEquals(3, report.getChecked());
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            report.print(SongCheck.Format.JSON, new PrintStream(json, true, StandardCharsets.UTF_8));
+            String expected = String.format("{\n  \"songs\": 3,\n  \"checked\": 3,\n  \"missing\": [\n    {\"song\": %s, \"playlists\": [%s, %s]}\n  ]\n}\n",
+                Json.quote(rock.resolve("Ultraspank--5.mp3").toString()), Json.quote(list1.toString()), Json.quote(list2.toString()));
+            assertEquals(expected, json.toString(StandardCharsets.UTF_8));
+
+            assertEquals(0, new SongCheck(context, rundir).check(factory.stream()).getChecked());
+            Files.createFile(rock.resolve("Ultraspank--5.mp3"));
+            report = new SongCheck(context, rundir).check(factory.stream());
+            assertEquals(2, report.getChecked());
+            assertEquals(List.of(), report.getMissing());
+        });
+    }
+
+    /**
+     * Repairs entries of songs moved to a folder, moved with another case, moved into two folders and deleted.
+     */
+    DynamicTest repairTest(String name) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Files.createDirectories(rundir.resolve("Old"));
+            Path moved = Files.createDirectories(rundir.resolve("New"));
+            Files.createFile(moved.resolve("Eurythmics--Angel.mp3"));
+            Files.createFile(moved.resolve("tool--sober.mp3"));
+            Files.createFile(Files.createDirectories(rundir.resolve("X")).resolve("Ultraspank--5.mp3"));
+            Files.createFile(Files.createDirectories(rundir.resolve("Y")).resolve("Ultraspank--5.mp3"));
+            Path list = Files.write(rundir.resolve("Play1.m3u"), List.of("Old/Eurythmics--Angel.mp3", "Old/Ultraspank--5.mp3", "Old/Tool--Sober.mp3", "Old/Def Leppard--Foolin'.mp3"));
+
+            // like the repair operation, missing songs are not checked
+            Options options = new Options();
+            options.setCheck(Options.Check.NO);
+            SongBaseContext context = new SongBaseContext(options, new PrintStream(OutputStream.nullOutputStream()));
+            PlaylistList factory = new PlaylistList(context, rundir, true);
+            Repair repair = new Repair(context, rundir);
+            repair.repair(factory);
+            factory.update(false);
+
+            assertEquals(2, repair.getRepaired());
+            assertEquals(1, repair.getAmbiguous());
+            assertEquals(1, repair.getUnresolved());
+            assertEquals(List.of("New/Eurythmics--Angel.mp3", "Old/Ultraspank--5.mp3", "New/tool--sober.mp3", "Old/Def Leppard--Foolin'.mp3"), Files.readAllLines(list));
+        });
+    }
+
+    /**
+     * Adds a song to playlists. Only a playlist ending with a line break and changed by appends only is appended to,
+     * which keeps its other lines untouched.
+     */
+    DynamicTest appendTest(String name) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Files.createFile(Files.createDirectories(rundir.resolve("A")).resolve("Eurythmics--Angel.mp3"));
+            Path song = Files.createFile(Files.createDirectories(rundir.resolve("B")).resolve("Ultraspank--5.mp3"));
+            String content = "#EXTM3U\r\n# kept comment\r\nA/Eurythmics--Angel.mp3\r\n";
+            Path appended = Files.writeString(rundir.resolve("Play1.m3u8"), content);
+            Path unterminated = Files.writeString(rundir.resolve("Play2.m3u8"), "#EXTM3U\nA/Eurythmics--Angel.mp3");
+            Path rewritten = Files.writeString(rundir.resolve("Play3.m3u8"), content);
+            String nl = System.lineSeparator();
+
+            SongBaseContext context = new SongBaseContext(new Options(), new PrintStream(OutputStream.nullOutputStream()));
+            Playlist that = Playlist.ofPlaylistOrSong(context, song);
+            for (Path path : List.of(appended, unterminated, rewritten)) {
+                Playlist list = Playlist.of(context, path);
+                if (path == rewritten) list.remove(list.entries().collect(Collectors.toList()).stream());
+                list.add(that.entries());
+                list.write(false);
+            }
+
+            assertEquals(content + "B/Ultraspank--5.mp3" + nl, Files.readString(appended));
+            assertEquals("A/Eurythmics--Angel.mp3" + nl + "B/Ultraspank--5.mp3" + nl, Files.readString(unterminated));
+            assertEquals("B/Ultraspank--5.mp3" + nl, Files.readString(rewritten));
+        });
+    }
+
+    /**
+     * Writes playlists back without change. A playlist whose content would stay byte identical is not written and
+     * keeps its modification time, another one is normalized.
+     */
+    DynamicTest unchangedTest(String name) {
+        return DynamicTest.dynamicTest(name + " Test", () -> {
+            Path rundir = cleanRun(name);
+            Files.createFile(Files.createDirectories(rundir.resolve("A")).resolve("Eurythmics--Angel.mp3"));
+            Files.createFile(Files.createDirectories(rundir.resolve("B")).resolve("Ultraspank--5.mp3"));
+            String nl = System.lineSeparator();
+            String content = "A/Eurythmics--Angel.mp3" + nl + "B/Ultraspank--5.mp3" + nl;
+            Path same = Files.writeString(rundir.resolve("Play1.m3u8"), content);
+            Path other = Files.writeString(rundir.resolve("Play2.m3u8"), "# comment" + nl + content);
+            FileTime time = FileTime.fromMillis(1000000000000L);
+            Files.setLastModifiedTime(same, time);
+            Files.setLastModifiedTime(other, time);
+
+            SongBaseContext context = new SongBaseContext(new Options(), new PrintStream(OutputStream.nullOutputStream()));
+            for (Path path : List.of(same, other)) {
+                Playlist list = Playlist.of(context, path);
+                list.add(list.entries().collect(Collectors.toList()).stream());
+                list.write(false);
+            }
+
+            assertEquals(1, context.getSkipped());
+            assertEquals(time, Files.getLastModifiedTime(same));
+            assertEquals(content, Files.readString(same));
+            assertTrue(Files.getLastModifiedTime(other).compareTo(time) > 0);
+            assertEquals(content, Files.readString(other));
+        });
+    }
+
+    private static Path cleanRun(String name) throws IOException {
+        Path rundir = testdir.resolve(name).resolve("run");
+        if (Files.exists(rundir)) {
+            try (Stream<Path> paths = Files.walk(rundir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        return Files.createDirectories(rundir);
+    }
 }
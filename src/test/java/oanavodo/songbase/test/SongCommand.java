@@ -22,8 +22,8 @@ import java.util.regex.Pattern;
 import java.util.stream.Stream;
 import oanavodo.songbase.Options;
 import oanavodo.songbase.Options.Check;
-import oanavodo.songbase.Song;
 import oanavodo.songbase.SongBase;
+import oanavodo.songbase.SongBaseContext;
 import oanavodo.songbase.playlist.Playlist;
 import oanavodo.songbase.test.SongBaseTest.TestOption;
 import org.opentest4j.AssertionFailedError;
@@ -209,8 +209,9 @@ public class SongCommand {
     private void createSongs(Path path) {
         Options options2 = new Options();
         options2.setCheck(Check.NO);
-        Song.setOptions(options2);
-        Playlist list = Playlist.of(path);
+        SongBaseContext context = new SongBaseContext(options2);
+        Playlist list = Playlist.of(context, path);
+        context.releaseLocks();
         Path relpath = rundir.relativize(list.getBase());
         list.entries().forEach(song -> {
             Path spath = rundir.resolve(relpath).resolve(song.getFolder()).resolve(song.getName());